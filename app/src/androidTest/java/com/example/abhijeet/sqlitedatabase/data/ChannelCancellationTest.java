@@ -0,0 +1,122 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that cancelling the signal passed to {@link ChannelProvider#query} stops a running
+ * query with an {@link OperationCanceledException} and leaves the database usable.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChannelCancellationTest {
+
+    /** Channels in the table; a three-way join of them takes far longer than the test allows */
+    private static final int ROW_COUNT = 1000;
+
+    /** Time the scan runs before it is cancelled */
+    private static final long CANCEL_DELAY_MS = 200;
+
+    /** Selection that makes SQLite step through every row of a three-way join of the table */
+    private static final String SLOW_SELECTION = "(SELECT COUNT(*) FROM "
+            + ChannelEntry.TABLE_NAME + " a, " + ChannelEntry.TABLE_NAME + " b, "
+            + ChannelEntry.TABLE_NAME + " c) >= 0";
+
+    private ChannelDbHelper mDbHelper;
+
+    private ChannelProvider mProvider;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new ChannelDbHelper(context, ChannelDbHelper.StorageMode.MEMORY);
+        mProvider = new ChannelProvider(mDbHelper);
+        mProvider.attachInfo(context, null);
+
+        ContentValues[] values = new ContentValues[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            values[i] = new ContentValues();
+            values[i].put(ChannelEntry.COLUMN_CHANNEL_NAME, "Channel " + i);
+            values[i].put(ChannelEntry.COLUMN_CHANNEL_ID, i);
+        }
+        assertEquals(ROW_COUNT, mProvider.bulkInsert(ChannelEntry.CONTENT_URI, values));
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test(timeout = 30000)
+    public void cancelStopsRunningScan() {
+        final CancellationSignal signal = new CancellationSignal();
+        Thread canceller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(CANCEL_DELAY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                signal.cancel();
+            }
+        });
+
+        // The cursor runs the query when it is first filled, so that is where it is cancelled
+        Cursor cursor = mProvider.query(ChannelEntry.CONTENT_URI, null, SLOW_SELECTION, null, null,
+                signal);
+        canceller.start();
+        try {
+            cursor.getCount();
+            fail("Scan finished although it was cancelled");
+        } catch (OperationCanceledException e) {
+            // Expected
+        } finally {
+            cursor.close();
+        }
+        assertTrue(cursor.isClosed());
+
+        // An in-memory database has a single connection, so this only runs if the cancelled
+        // query gave it back
+        assertEquals(ROW_COUNT, countChannels());
+    }
+
+    @Test
+    public void cancelBeforeQueryThrows() {
+        CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+        try {
+            mProvider.query(ChannelEntry.CONTENT_URI, null, SLOW_SELECTION, null, null, signal);
+            fail("Query ran although it was cancelled");
+        } catch (OperationCanceledException e) {
+            // Expected
+        }
+        assertEquals(ROW_COUNT, countChannels());
+    }
+
+    /*** Returns the number of channels, read through the provider's count URI.*/
+    private int countChannels() {
+        Cursor cursor = mProvider.query(ChannelEntry.CONTENT_COUNT_URI, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelChangeEntry;
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Writes databases with the schema of older versions and checks that {@link ChannelDbHelper}
+ * upgrades them to the current one without losing channels.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChannelDbUpgradeTest {
+
+    /** Channels written into the old database */
+    private static final int ROW_COUNT = 3;
+
+    private Context mContext;
+
+    private ChannelDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new ChannelDbHelper(mContext, ChannelDbHelper.StorageMode.TEMP_FILE);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    /**
+     * Creates the helper's database file with the schema of the given version, 1 or 2, holding
+     * {@link #ROW_COUNT} channels.
+     */
+    private void createOldDatabase(int version) {
+        File file = mContext.getDatabasePath(mDbHelper.getDatabaseName());
+        file.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            db.execSQL("CREATE TABLE " + ChannelEntry.TABLE_NAME + " ("
+                    + ChannelEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + ChannelEntry.COLUMN_CHANNEL_NAME + " TEXT NOT NULL, "
+                    + ChannelEntry.COLUMN_CHANNEL_ID + " INTEGER NOT NULL DEFAULT 0);");
+            if (version >= 2) {
+                db.execSQL("CREATE INDEX " + ChannelEntry.INDEX_CHANNEL_ID + " ON "
+                        + ChannelEntry.TABLE_NAME + " (" + ChannelEntry.COLUMN_CHANNEL_ID + ");");
+            }
+            for (int i = 1; i <= ROW_COUNT; i++) {
+                db.execSQL("INSERT INTO " + ChannelEntry.TABLE_NAME + " ("
+                        + ChannelEntry.COLUMN_CHANNEL_NAME + ", " + ChannelEntry.COLUMN_CHANNEL_ID
+                        + ") VALUES (?, ?)", new Object[] { "Channel " + i, i });
+            }
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    /*** Upgrades the database and checks the channels, the change log and its horizon.*/
+    private void checkUpgrade() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        assertEquals(ROW_COUNT, DatabaseUtils.queryNumEntries(db, ChannelEntry.TABLE_NAME));
+
+        // The existing channels are in the change log, so "since=0" returns all of them
+        assertEquals(ROW_COUNT, DatabaseUtils.queryNumEntries(db, ChannelChangeEntry.TABLE_NAME));
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, ChannelChangeEntry.HORIZON_TABLE_NAME));
+        assertEquals(0, ChannelDbHelper.getChangeHorizon(db));
+
+        // The delete trigger, which maintains the horizon, works on the upgraded schema
+        assertEquals(1, db.delete(ChannelEntry.TABLE_NAME, ChannelEntry._ID + " = 1", null));
+        assertEquals(ChannelChangeEntry.OP_DELETE, DatabaseUtils.stringForQuery(db,
+                "SELECT " + ChannelChangeEntry.COLUMN_OP + " FROM " + ChannelChangeEntry.TABLE_NAME
+                        + " WHERE " + ChannelChangeEntry._ID + " = 1", null));
+    }
+
+    @Test
+    public void upgradesVersion1() {
+        createOldDatabase(1);
+        checkUpgrade();
+    }
+
+    @Test
+    public void upgradesVersion2() {
+        createOldDatabase(2);
+        checkUpgrade();
+    }
+}
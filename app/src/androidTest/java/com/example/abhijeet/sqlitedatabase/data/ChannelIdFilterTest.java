@@ -0,0 +1,99 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the channel id filter behind skip_existing imports never loses a channel id that
+ * is still in the table, whatever mix of writes came before.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChannelIdFilterTest {
+
+    /** Channels URI for imports that skip channel ids already in the table */
+    private static final Uri SKIP_EXISTING_URI = ChannelEntry.CONTENT_URI.buildUpon()
+            .appendQueryParameter(ChannelEntry.QUERY_PARAMETER_SKIP_EXISTING, "true").build();
+
+    private ChannelDbHelper mDbHelper;
+
+    private ChannelProvider mProvider;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new ChannelDbHelper(context, ChannelDbHelper.StorageMode.MEMORY);
+        mProvider = new ChannelProvider(mDbHelper);
+        mProvider.attachInfo(context, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    private static ContentValues channelValues(String name, long channelId) {
+        ContentValues values = new ContentValues();
+        values.put(ChannelEntry.COLUMN_CHANNEL_NAME, name);
+        values.put(ChannelEntry.COLUMN_CHANNEL_ID, channelId);
+        return values;
+    }
+
+    @Test
+    public void multiRowUpdateThenDeleteKeepsChannelId() {
+        // The first skip_existing import loads the filter
+        assertEquals(4, mProvider.bulkInsert(SKIP_EXISTING_URI, new ContentValues[] {
+                channelValues("a", 1), channelValues("b", 2),
+                channelValues("c", 3), channelValues("d", 4) }));
+
+        // Three rows take the same new channel id, then one of them is deleted
+        ContentValues newChannelId = new ContentValues();
+        newChannelId.put(ChannelEntry.COLUMN_CHANNEL_ID, 100);
+        assertEquals(3, mProvider.update(ChannelEntry.CONTENT_URI, newChannelId,
+                ChannelEntry.COLUMN_CHANNEL_ID + " IN (1, 2, 3)", null));
+        long id = queryIdOf(100);
+        assertEquals(1, mProvider.delete(ContentUris.withAppendedId(ChannelEntry.CONTENT_URI, id),
+                null, null));
+
+        // Two rows still hold channel id 100, so the import must find it and skip it
+        assertEquals(0, mProvider.bulkInsert(SKIP_EXISTING_URI, new ContentValues[] {
+                channelValues("e", 100) }));
+        assertEquals(2, countChannelId(100));
+    }
+
+    /*** Returns the _ID of one of the channels with the given channel id.*/
+    private long queryIdOf(long channelId) {
+        Cursor cursor = mProvider.query(ChannelEntry.CONTENT_URI, new String[] { ChannelEntry._ID },
+                ChannelEntry.COLUMN_CHANNEL_ID + "=?", new String[] { String.valueOf(channelId) }, null);
+        try {
+            assertTrue("No channel with channel id " + channelId, cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countChannelId(long channelId) {
+        Cursor cursor = mProvider.query(ChannelEntry.CONTENT_URI, new String[] { ChannelEntry._ID },
+                ChannelEntry.COLUMN_CHANNEL_ID + "=?", new String[] { String.valueOf(channelId) }, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelFieldEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Runs every query shape issued by {@link ChannelProvider} through EXPLAIN QUERY PLAN against a
+ * populated database, and fails when a query scans a table or builds a temporary B-tree that it
+ * is not expected to. A report with the plan and timing of each shape is written to the log and
+ * to query-plans.txt in the app's cache directory.
+ * <p>
+ * When a new URI or selection is added to the provider, add its shape to {@link #shapes(boolean)}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChannelQueryPlanTest {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ChannelQueryPlanTest.class.getSimpleName();
+
+    /** Number of channels to populate the database with, large enough for the planner to care */
+    private static final int ROW_COUNT = 10000;
+
+    /** Columns requested by the list and editor screens */
+    private static final String[] PROJECTION = {
+            ChannelEntry._ID,
+            ChannelEntry.COLUMN_CHANNEL_NAME,
+            ChannelEntry.COLUMN_CHANNEL_ID };
+
+    /**
+     * One query issued by the provider, whether it is allowed to read the whole table, whether
+     * it is allowed to sort its results and which covering index, if any, it must be answered from.
+     */
+    private static class Shape {
+        final String name;
+        final String sql;
+        final String[] args;
+        final boolean fullScanExpected;
+        final boolean sortExpected;
+        String coveringIndex;
+
+        Shape(String name, String sql, String[] args, boolean fullScanExpected) {
+            this(name, sql, args, fullScanExpected, false);
+        }
+
+        Shape(String name, String sql, String[] args, boolean fullScanExpected, boolean sortExpected) {
+            this.name = name;
+            this.sql = sql;
+            this.args = args;
+            this.fullScanExpected = fullScanExpected;
+            this.sortExpected = sortExpected;
+        }
+
+        /*** Requires the plan to read only the given covering index, scanning it is allowed.*/
+        Shape usingCoveringIndex(String index) {
+            coveringIndex = index;
+            return this;
+        }
+    }
+
+    private ChannelDbHelper mDbHelper;
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+
+        // Build the provider's schema in a throwaway in-memory database
+        mDbHelper = new ChannelDbHelper(context, ChannelDbHelper.StorageMode.MEMORY);
+        mDbHelper.populate(ROW_COUNT);
+        mDatabase = mDbHelper.getWritableDatabase();
+        mDatabase.execSQL("ANALYZE");
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    /*** The query shapes issued by {@link ChannelProvider}, built the same way it builds them.*/
+    private static List<Shape> shapes(boolean spatialIndex) {
+        List<Shape> shapes = new ArrayList<>();
+
+        // content://.../channels, as used by the list in MainActivity
+        shapes.add(new Shape("channels",
+                channelQuery(null, null), null, true));
+
+        // content://.../channels/#, as used by EditorActivity
+        shapes.add(new Shape("channels/#",
+                channelQuery(ChannelEntry._ID + "=?", null), new String[] { "42" }, false));
+
+        // content://.../channels with a selection on the ThingSpeak channel id
+        shapes.add(new Shape("channels?channel_id",
+                channelQuery(ChannelEntry.COLUMN_CHANNEL_ID + "=?", null),
+                new String[] { "42" }, false));
+
+        // content://.../channels/count, compare its timing with the "channels" shape
+        shapes.add(new Shape("channels/count",
+                SQLiteQueryBuilder.buildQueryString(false, ChannelEntry.TABLE_NAME,
+                        new String[] { "COUNT(*) AS " + ChannelEntry.COLUMN_COUNT },
+                        null, null, null, null, null), null, true));
+
+        // content://.../channels/stats?group_by=channel_id
+        shapes.add(new Shape("channels/stats?group_by=channel_id",
+                SQLiteQueryBuilder.buildQueryString(false, ChannelEntry.TABLE_NAME,
+                        new String[] { ChannelEntry.COLUMN_CHANNEL_ID,
+                                "COUNT(*) AS " + ChannelEntry.COLUMN_COUNT },
+                        null, ChannelEntry.COLUMN_CHANNEL_ID, null, ChannelEntry.COLUMN_CHANNEL_ID,
+                        null), null, true));
+
+        // content://.../channels/changes?since=V, with the version near the end of the log
+        shapes.add(new Shape("channels/changes",
+                ChannelProvider.SQL_QUERY_CHANGES, new String[] { String.valueOf(ROW_COUNT - 10) },
+                false));
+
+        // content://.../channels/catalog, which should read only the catalog index
+        shapes.add(new Shape("channels/catalog",
+                SQLiteQueryBuilder.buildQueryString(false, ChannelEntry.TABLE_NAME,
+                        ChannelProvider.CATALOG_PROJECTION, null, null, null,
+                        ChannelEntry.COLUMN_CHANNEL_NAME, null), null, false)
+                .usingCoveringIndex(ChannelEntry.INDEX_CATALOG));
+
+        // content://.../channels/#/tags
+        shapes.add(new Shape("channels/#/tags",
+                ChannelProvider.SQL_QUERY_CHANNEL_TAGS, new String[] { "42" }, false));
+
+        // content://.../channels/#/fields
+        shapes.add(new Shape("channels/#/fields",
+                SQLiteQueryBuilder.buildQueryString(false, ChannelFieldEntry.TABLE_NAME,
+                        ChannelProvider.FIELDS_PROJECTION,
+                        ChannelFieldEntry.COLUMN_CHANNEL_ROW_ID + "=?", null, null,
+                        ChannelFieldEntry.COLUMN_FIELD_NUMBER, null), new String[] { "42" }, false));
+
+        // content://.../channels/within, a box of about 20 km
+        String[] box = { "52.4", "52.6", "13.2", "13.5" };
+        shapes.add(new Shape("channels/within",
+                ChannelProvider.spatialQuery(spatialIndex, false), box, false));
+
+        // content://.../channels/nearest, the first box searched; sorting the few hits is expected
+        shapes.add(new Shape("channels/nearest",
+                ChannelProvider.spatialQuery(spatialIndex, true),
+                new String[] { "52.4", "52.6", "13.2", "13.5", "52.5", "13.4", "0.37", "10" },
+                false, true));
+        return shapes;
+    }
+
+    /*** Builds the SQL that SQLiteDatabase.query() runs for a query on the channels table.*/
+    private static String channelQuery(String selection, String sortOrder) {
+        return SQLiteQueryBuilder.buildQueryString(false, ChannelEntry.TABLE_NAME, PROJECTION,
+                selection, null, null, sortOrder, null);
+    }
+
+    @Test
+    public void queriesUseIndexes() throws IOException {
+        StringBuilder report = new StringBuilder();
+        List<String> failures = new ArrayList<>();
+
+        for (Shape shape : shapes(ChannelDbHelper.hasSpatialIndex(mDatabase))) {
+            report.append(shape.name).append('\n');
+
+            // Collect the plan, one line per step
+            String coveringIndex = shape.coveringIndex == null
+                    ? null : "USING COVERING INDEX " + shape.coveringIndex;
+            boolean coveringIndexUsed = false;
+            Cursor plan = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + shape.sql, shape.args);
+            try {
+                int detailColumnIndex = plan.getColumnIndexOrThrow("detail");
+                while (plan.moveToNext()) {
+                    String detail = plan.getString(detailColumnIndex);
+                    report.append("    ").append(detail).append('\n');
+
+                    // Scanning the required covering index never touches the table itself
+                    boolean coveringScan = coveringIndex != null && detail.contains(coveringIndex);
+                    coveringIndexUsed |= coveringScan;
+
+                    // A virtual table "scan" is a lookup in the R*Tree, not a table scan
+                    if (detail.startsWith("SCAN") && !detail.contains("VIRTUAL TABLE")
+                            && !coveringScan && !shape.fullScanExpected) {
+                        failures.add(shape.name + ": " + detail);
+                    }
+                    if (detail.contains("TEMP B-TREE") && !shape.sortExpected) {
+                        failures.add(shape.name + ": " + detail);
+                    }
+                }
+            } finally {
+                plan.close();
+            }
+            if (coveringIndex != null && !coveringIndexUsed) {
+                failures.add(shape.name + ": not " + coveringIndex);
+            }
+
+            // Time the query itself, reading every row the way a CursorAdapter would
+            long start = System.nanoTime();
+            Cursor cursor = mDatabase.rawQuery(shape.sql, shape.args);
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getString(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            long micros = (System.nanoTime() - start) / 1000;
+            report.append("    ").append(micros).append(" us\n");
+        }
+
+        Log.i(LOG_TAG, report.toString());
+        File reportFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "query-plans.txt");
+        FileWriter writer = new FileWriter(reportFile);
+        try {
+            writer.write(report.toString());
+        } finally {
+            writer.close();
+        }
+
+        if (!failures.isEmpty()) {
+            fail("Unexpected query plan steps:\n" + failures + "\n\n" + report);
+        }
+    }
+}
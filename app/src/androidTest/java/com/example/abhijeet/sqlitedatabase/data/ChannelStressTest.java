@@ -0,0 +1,783 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.FeedEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Mixed read/write stress run against {@link ChannelProvider} on a temporary database. Several
+ * threads issue random reads, inserts, updates and deletes for a fixed time, then the run
+ * reports throughput, latency percentiles, SQLITE_BUSY errors, slow operations and consistency
+ * violations, and fails if any violation was seen.
+ * <p>
+ * {@link #feedShardScaling()} ingests the same feed entries into {@link FeedShards} with 1, 2, 4
+ * and 8 shards and reports the ingest rate and the time of the latest-entry fan-out query for
+ * each. The shards are temporary files without a journal, so the ingest rates are higher than
+ * those of the real, synced shards; compare them with each other only.
+ * <p>
+ * {@link #channelIdFilterImport()} measures the channel id filter behind skip_existing imports:
+ * its false-positive rate on channel ids that are not in the table, how many index lookups it
+ * saves on an import where half of the channels already exist, and the time of that import.
+ * <p>
+ * {@link #packedChannelRead()} reads the whole table through
+ * {@link ChannelEntry#METHOD_READ_CHANNELS} and through a cursor query, and reports the time of
+ * each. The provider is called directly, so neither path pays for binder here.
+ * <p>
+ * {@link #nearestChannels()} adds channels at random locations, a million with
+ * {@code -e nearestRows 1000000}, then times the provider's nearest-channel query against a full
+ * scan sorted by distance, and checks that both find the same channels.
+ * <p>
+ * {@link #writeAllocations()} inserts the same number of channels through
+ * {@link SQLiteDatabase#insert} with {@link ContentValues}, the way the provider wrote them before
+ * {@link ChannelWriter}, and through the writer's compiled statement, and reports the objects and
+ * bytes the test thread allocates per row on each path.
+ * <p>
+ * {@link #countQuery()} grows the table to {@code countRows} channels and times counting them
+ * through {@link ChannelEntry#CONTENT_COUNT_URI} against {@link Cursor#getCount()} on a query of
+ * every channel, which fills cursor windows with all the rows just to count them.
+ * <p>
+ * The database is a temporary file set up like the real one, with write-ahead logging and synced
+ * writes, so readers run on their own connections next to the writer as they do in the app.
+ * <p>
+ * Two things count as violations. Every write keeps name == "stress-" + channel_id, so a row
+ * breaking it is a torn write. And each thread publishes the channel id of its last insert once
+ * the insert has returned; a reader on another thread that then cannot find that channel has
+ * seen a committed write go missing. The run is configured through instrumentation arguments,
+ * for example:
+ * <pre>
+ * adb shell am instrument -w -e class com.example.abhijeet.sqlitedatabase.data.ChannelStressTest \
+ *     -e stressThreads 8 -e stressReadPercent 80 -e stressRows 100000 -e stressSeconds 30 \
+ *     -e stressStorage temp_wal_file \
+ *     -e feedChannels 1000 -e feedEntries 100000 -e filterImportRows 20000 \
+ *     -e nearestRows 1000000 -e allocRows 10000 -e countRows 1000000 \
+ *     com.example.abhijeet.sqlitedatabase.test/android.support.test.runner.AndroidJUnitRunner
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChannelStressTest {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ChannelStressTest.class.getSimpleName();
+
+    /** Operations slower than this are counted as having waited for a lock */
+    private static final long SLOW_OPERATION_NANOS = 50 * 1000 * 1000L;
+
+    /** Most latency samples kept per thread */
+    private static final int MAX_SAMPLES_PER_THREAD = 1 << 18;
+
+    private static final String NAME_PREFIX = "stress-";
+
+    /** Shard counts compared by {@link #feedShardScaling()} */
+    private static final int[] FEED_SHARD_COUNTS = { 1, 2, 4, 8 };
+
+    /** Feed entries per bulk insert, about what one page of a ThingSpeak feed holds */
+    private static final int FEED_BATCH_SIZE = 1000;
+
+    /** Times the latest-entry query is run for each shard count */
+    private static final int FEED_QUERY_RUNS = 5;
+
+    /** Times the whole table is read by each path of {@link #packedChannelRead()} */
+    private static final int READ_RUNS = 5;
+
+    /** Times the table is counted by each path of {@link #countQuery()} */
+    private static final int COUNT_RUNS = 5;
+
+    /** Points searched by {@link #nearestChannels()} */
+    private static final int NEAREST_QUERIES = 20;
+
+    /** Channels returned by each nearest-channel query */
+    private static final int NEAREST_LIMIT = 10;
+
+    /** Channels URI for imports that skip channel ids already in the table */
+    private static final Uri SKIP_EXISTING_URI = ChannelEntry.CONTENT_URI.buildUpon()
+            .appendQueryParameter(ChannelEntry.QUERY_PARAMETER_SKIP_EXISTING, "true").build();
+
+    /** First channel id probed for false positives, far above any id the run inserts */
+    private static final long ABSENT_CHANNEL_ID_BASE = 1L << 40;
+
+    private ChannelDbHelper mDbHelper;
+
+    private ChannelProvider mProvider;
+
+    private int mThreads;
+    private int mReadPercent;
+    private int mRows;
+    private int mSeconds;
+    private ChannelDbHelper.StorageMode mStorageMode;
+    private int mFeedChannels;
+    private int mFeedEntries;
+    private int mFilterImportRows;
+    private int mNearestRows;
+    private int mAllocRows;
+    private int mCountRows;
+
+    /** Next channel id to hand out to an insert, so every channel id is unique */
+    private final AtomicLong mNextChannelId = new AtomicLong();
+
+    /** Highest _ID known to exist when the run started, readers pick ids up to it */
+    private long mMaxId;
+
+    /**
+     * Channel id of the last insert each thread completed, -1 before its first. Inserted rows
+     * have ids above {@link #mMaxId}, which updates and deletes never touch, so they must stay
+     * visible to every thread from the moment they are published here.
+     */
+    private AtomicLongArray mLastInserted;
+
+    private final AtomicInteger mBusyErrors = new AtomicInteger();
+    private final AtomicInteger mSlowOperations = new AtomicInteger();
+    private final AtomicInteger mViolations = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        mThreads = intArgument(arguments, "stressThreads", 4);
+        mReadPercent = intArgument(arguments, "stressReadPercent", 80);
+        mRows = intArgument(arguments, "stressRows", 10000);
+        mSeconds = intArgument(arguments, "stressSeconds", 10);
+        String storage = arguments.getString("stressStorage");
+        mStorageMode = storage == null ? ChannelDbHelper.StorageMode.TEMP_WAL_FILE
+                : ChannelDbHelper.StorageMode.valueOf(storage.toUpperCase(Locale.ROOT));
+        mFeedChannels = intArgument(arguments, "feedChannels", 1000);
+        mFeedEntries = intArgument(arguments, "feedEntries", 50000);
+        mFilterImportRows = intArgument(arguments, "filterImportRows", 10000);
+        mNearestRows = intArgument(arguments, "nearestRows", 100000);
+        mAllocRows = intArgument(arguments, "allocRows", 10000);
+        mCountRows = intArgument(arguments, "countRows", 100000);
+
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new ChannelDbHelper(context, mStorageMode);
+        mProvider = new ChannelProvider(mDbHelper);
+        mProvider.attachInfo(context, null);
+
+        // Seed the table with rows that already hold the invariant
+        ContentValues[] rows = new ContentValues[mRows];
+        for (int i = 0; i < mRows; i++) {
+            rows[i] = channelValues(mNextChannelId.getAndIncrement());
+        }
+        mProvider.bulkInsert(ChannelEntry.CONTENT_URI, rows);
+        mMaxId = mRows;
+        mLastInserted = new AtomicLongArray(mThreads);
+        for (int t = 0; t < mThreads; t++) {
+            mLastInserted.set(t, -1);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    private static int intArgument(Bundle arguments, String name, int defaultValue) {
+        String value = arguments.getString(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static ContentValues channelValues(long channelId) {
+        ContentValues values = new ContentValues();
+        values.put(ChannelEntry.COLUMN_CHANNEL_NAME, NAME_PREFIX + channelId);
+        values.put(ChannelEntry.COLUMN_CHANNEL_ID, channelId);
+        return values;
+    }
+
+    @Test
+    public void mixedWorkload() throws InterruptedException {
+        final long deadline = System.nanoTime() + mSeconds * 1000L * 1000L * 1000L;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<long[]> samples = new ArrayList<>();
+        final int[] sampleCounts = new int[mThreads];
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < mThreads; t++) {
+            final int thread = t;
+            final long[] latencies = new long[MAX_SAMPLES_PER_THREAD];
+            samples.add(latencies);
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(thread);
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    int count = 0;
+                    while (System.nanoTime() < deadline && count < latencies.length) {
+                        long begin = System.nanoTime();
+                        runOperation(random, thread);
+                        long elapsed = System.nanoTime() - begin;
+                        latencies[count++] = elapsed;
+                        if (elapsed > SLOW_OPERATION_NANOS) {
+                            mSlowOperations.incrementAndGet();
+                        }
+                    }
+                    sampleCounts[thread] = count;
+                }
+            }, LOG_TAG + "-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+
+        long runStart = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long runNanos = System.nanoTime() - runStart;
+
+        // Merge the samples of all threads and report
+        int total = 0;
+        for (int count : sampleCounts) {
+            total += count;
+        }
+        long[] all = new long[total];
+        int position = 0;
+        for (int t = 0; t < mThreads; t++) {
+            System.arraycopy(samples.get(t), 0, all, position, sampleCounts[t]);
+            position += sampleCounts[t];
+        }
+        Arrays.sort(all);
+
+        String report = "storage=" + mStorageMode
+                + " threads=" + mThreads + " readPercent=" + mReadPercent + " rows=" + mRows
+                + "\n operations=" + total
+                + " throughput=" + (long) (total / (runNanos / 1e9)) + " ops/s"
+                + "\n p50=" + percentileMicros(all, 0.50) + "us"
+                + " p99=" + percentileMicros(all, 0.99) + "us"
+                + " p999=" + percentileMicros(all, 0.999) + "us"
+                + " max=" + percentileMicros(all, 1.0) + "us"
+                + "\n busy=" + mBusyErrors.get()
+                + " slow(>" + SLOW_OPERATION_NANOS / 1000000 + "ms)=" + mSlowOperations.get()
+                + " violations=" + mViolations.get();
+        Log.i(LOG_TAG, report);
+
+        assertEquals("Consistency violations\n" + report, 0, mViolations.get());
+    }
+
+    @Test
+    public void feedShardScaling() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        StringBuilder report = new StringBuilder("channels=" + mFeedChannels
+                + " entries=" + mFeedEntries);
+
+        for (int shardCount : FEED_SHARD_COUNTS) {
+            FeedShards shards = new FeedShards(context, ChannelDbHelper.StorageMode.TEMP_FILE, shardCount);
+            try {
+                // Entries arrive round-robin over the channels, as a poll of every channel would
+                long ingestStart = System.nanoTime();
+                for (int first = 0; first < mFeedEntries; first += FEED_BATCH_SIZE) {
+                    ContentValues[] batch = new ContentValues[Math.min(FEED_BATCH_SIZE, mFeedEntries - first)];
+                    for (int i = 0; i < batch.length; i++) {
+                        batch[i] = feedValues(first + i);
+                    }
+                    shards.bulkInsert(batch);
+                }
+                long ingestNanos = System.nanoTime() - ingestStart;
+
+                long[] queryNanos = new long[FEED_QUERY_RUNS];
+                int latestRows = 0;
+                for (int run = 0; run < FEED_QUERY_RUNS; run++) {
+                    long queryStart = System.nanoTime();
+                    Cursor cursor = shards.queryLatest(null);
+                    try {
+                        latestRows = cursor.getCount();
+                    } finally {
+                        cursor.close();
+                    }
+                    queryNanos[run] = System.nanoTime() - queryStart;
+                }
+                Arrays.sort(queryNanos);
+
+                report.append("\n shards=").append(shardCount)
+                        .append(" ingest=").append((long) (mFeedEntries / (ingestNanos / 1e9))).append(" entries/s")
+                        .append(" latest p50=").append(percentileMicros(queryNanos, 0.50)).append("us")
+                        .append(" max=").append(percentileMicros(queryNanos, 1.0)).append("us");
+                assertEquals("Latest entries with " + shardCount + " shards",
+                        Math.min(mFeedChannels, mFeedEntries), latestRows);
+            } finally {
+                shards.close();
+            }
+        }
+        Log.i(LOG_TAG, report.toString());
+    }
+
+    @Test
+    public void channelIdFilterImport() {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+
+        // False positives of a filter over the seeded table, on channel ids it never held
+        ChannelIdBloomFilter filter = ChannelIdBloomFilter.build(database);
+        int probes = Math.max(mRows, 10000);
+        int falsePositives = 0;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain(ABSENT_CHANNEL_ID_BASE + i)) {
+                falsePositives++;
+            }
+        }
+
+        // An import where every other channel is already in the table
+        ContentValues[] batch = new ContentValues[mFilterImportRows];
+        long[] channelIds = new long[mFilterImportRows];
+        int newRows = 0;
+        for (int i = 0; i < batch.length; i++) {
+            if (i % 2 == 0) {
+                channelIds[i] = (i / 2) % mRows;
+            } else {
+                channelIds[i] = mNextChannelId.getAndIncrement();
+                newRows++;
+            }
+            batch[i] = channelValues(channelIds[i]);
+        }
+
+        // The existence checks of the import, with and without the filter in front
+        long uncheckedNanos = timeExistenceChecks(database, null, channelIds);
+        long filteredNanos = timeExistenceChecks(database, filter, channelIds);
+        int lookups = 0;
+        for (long channelId : channelIds) {
+            if (filter.mightContain(channelId)) {
+                lookups++;
+            }
+        }
+
+        // The import itself, after a first one that loads the provider's filter
+        mProvider.bulkInsert(SKIP_EXISTING_URI, new ContentValues[] { channelValues(0) });
+        long importStart = System.nanoTime();
+        int inserted = mProvider.bulkInsert(SKIP_EXISTING_URI, batch);
+        long importNanos = System.nanoTime() - importStart;
+
+        String report = "rows=" + mRows + " importRows=" + mFilterImportRows
+                + "\n falsePositiveRate=" + String.format(Locale.ROOT, "%.4f",
+                        falsePositives / (double) probes) + " (" + falsePositives + "/" + probes + ")"
+                + "\n lookups=" + lookups + " saved=" + (channelIds.length - lookups)
+                + " checks unfiltered=" + uncheckedNanos / 1000 + "us"
+                + " filtered=" + filteredNanos / 1000 + "us"
+                + "\n import=" + importNanos / 1000 + "us inserted=" + inserted;
+        Log.i(LOG_TAG, report);
+
+        assertEquals("New channels imported\n" + report, newRows, inserted);
+    }
+
+    @Test
+    public void packedChannelRead() {
+        long[] packedNanos = new long[READ_RUNS];
+        long[] cursorNanos = new long[READ_RUNS];
+        int packedRows = 0;
+        int cursorRows = 0;
+        for (int run = 0; run < READ_RUNS; run++) {
+            long start = System.nanoTime();
+            packedRows = readPackedChannels();
+            packedNanos[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            cursorRows = readCursorChannels();
+            cursorNanos[run] = System.nanoTime() - start;
+        }
+        Arrays.sort(packedNanos);
+        Arrays.sort(cursorNanos);
+
+        String report = "rows=" + mRows
+                + "\n packed p50=" + percentileMicros(packedNanos, 0.50) + "us"
+                + " max=" + percentileMicros(packedNanos, 1.0) + "us"
+                + "\n cursor p50=" + percentileMicros(cursorNanos, 0.50) + "us"
+                + " max=" + percentileMicros(cursorNanos, 1.0) + "us";
+        Log.i(LOG_TAG, report);
+
+        assertEquals("Channels read by both paths\n" + report, cursorRows, packedRows);
+        assertEquals("Channels read\n" + report, mRows, packedRows);
+    }
+
+    /*** Reads every channel page by page through the packed call() and returns the count.*/
+    private int readPackedChannels() {
+        int rows = 0;
+        long afterId = 0;
+        while (true) {
+            Bundle extras = new Bundle();
+            extras.putLong(ChannelEntry.EXTRA_AFTER_ID, afterId);
+            Bundle page = mProvider.call(ChannelEntry.METHOD_READ_CHANNELS, null, extras);
+            long[] ids = page.getLongArray(ChannelEntry.EXTRA_IDS);
+            long[] channelIds = page.getLongArray(ChannelEntry.EXTRA_CHANNEL_IDS);
+            byte[] names = page.getByteArray(ChannelEntry.EXTRA_NAMES);
+            int[] nameOffsets = page.getIntArray(ChannelEntry.EXTRA_NAME_OFFSETS);
+            if (ids.length != channelIds.length || nameOffsets[ids.length] > names.length) {
+                throw new AssertionError("Inconsistent page after _ID " + afterId);
+            }
+            rows += ids.length;
+            if (ids.length == 0 || !page.getBoolean(ChannelEntry.EXTRA_HAS_MORE)) {
+                return rows;
+            }
+            afterId = ids[ids.length - 1];
+        }
+    }
+
+    /*** Reads every channel through a cursor, the way a list adapter would, and returns the count.*/
+    private int readCursorChannels() {
+        Cursor cursor = mProvider.query(ChannelEntry.CONTENT_URI, new String[] {
+                ChannelEntry._ID, ChannelEntry.COLUMN_CHANNEL_NAME, ChannelEntry.COLUMN_CHANNEL_ID },
+                null, null, ChannelEntry._ID);
+        try {
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+                cursor.getString(1);
+                cursor.getLong(2);
+                rows++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void nearestChannels() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        Random random = new Random(42);
+
+        // Insert straight into the table, the triggers keep the spatial index in step
+        long insertStart = System.nanoTime();
+        SQLiteStatement insert = database.compileStatement("INSERT INTO " + ChannelEntry.TABLE_NAME
+                + " (" + ChannelEntry.COLUMN_CHANNEL_NAME + ", " + ChannelEntry.COLUMN_CHANNEL_ID
+                + ", " + ChannelEntry.COLUMN_LATITUDE + ", " + ChannelEntry.COLUMN_LONGITUDE
+                + ") VALUES (?, ?, ?, ?)");
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < mNearestRows; i++) {
+                long channelId = mNextChannelId.getAndIncrement();
+                insert.bindString(1, NAME_PREFIX + channelId);
+                insert.bindLong(2, channelId);
+                insert.bindDouble(3, random.nextDouble() * 120 - 60);
+                insert.bindDouble(4, random.nextDouble() * 360 - 180);
+                insert.executeInsert();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            insert.close();
+        }
+        long insertNanos = System.nanoTime() - insertStart;
+
+        long[] nearestNanos = new long[NEAREST_QUERIES];
+        long[] scanNanos = new long[NEAREST_QUERIES];
+        int mismatches = 0;
+        for (int q = 0; q < NEAREST_QUERIES; q++) {
+            double latitude = random.nextDouble() * 100 - 50;
+            double longitude = random.nextDouble() * 340 - 170;
+
+            long start = System.nanoTime();
+            List<Long> nearest = readIds(mProvider.query(ChannelEntry.CONTENT_NEAREST_URI.buildUpon()
+                    .appendQueryParameter(ChannelEntry.QUERY_PARAMETER_LATITUDE, String.valueOf(latitude))
+                    .appendQueryParameter(ChannelEntry.QUERY_PARAMETER_LONGITUDE, String.valueOf(longitude))
+                    .appendQueryParameter(ChannelEntry.QUERY_PARAMETER_LIMIT, String.valueOf(NEAREST_LIMIT))
+                    .build(), null, null, null, null));
+            nearestNanos[q] = System.nanoTime() - start;
+
+            // The same ordering as the provider's, over every channel with a location
+            double longitudeScale = Math.max(1e-6, Math.cos(Math.toRadians(latitude)));
+            start = System.nanoTime();
+            List<Long> scanned = readIds(database.rawQuery("SELECT " + ChannelEntry._ID + " FROM "
+                    + ChannelEntry.TABLE_NAME + " WHERE " + ChannelEntry.COLUMN_LATITUDE
+                    + " IS NOT NULL ORDER BY (" + ChannelEntry.COLUMN_LATITUDE + " - ?1) * ("
+                    + ChannelEntry.COLUMN_LATITUDE + " - ?1) + (" + ChannelEntry.COLUMN_LONGITUDE
+                    + " - ?2) * (" + ChannelEntry.COLUMN_LONGITUDE + " - ?2) * ?3 LIMIT ?4",
+                    new String[] { String.valueOf(latitude), String.valueOf(longitude),
+                            String.valueOf(longitudeScale * longitudeScale),
+                            String.valueOf(NEAREST_LIMIT) }));
+            scanNanos[q] = System.nanoTime() - start;
+
+            if (!nearest.equals(scanned)) {
+                Log.e(LOG_TAG, "Nearest to " + latitude + "," + longitude + " returned " + nearest
+                        + ", a full scan " + scanned);
+                mismatches++;
+            }
+        }
+        Arrays.sort(nearestNanos);
+        Arrays.sort(scanNanos);
+
+        String report = "nearestRows=" + mNearestRows
+                + " rtree=" + ChannelDbHelper.hasSpatialIndex(database)
+                + " insert=" + insertNanos / 1000000 + "ms"
+                + "\n nearest p50=" + percentileMicros(nearestNanos, 0.50) + "us"
+                + " max=" + percentileMicros(nearestNanos, 1.0) + "us"
+                + "\n scan p50=" + percentileMicros(scanNanos, 0.50) + "us"
+                + " max=" + percentileMicros(scanNanos, 1.0) + "us"
+                + "\n mismatches=" + mismatches;
+        Log.i(LOG_TAG, report);
+
+        assertEquals("Nearest channels differing from a full scan\n" + report, 0, mismatches);
+    }
+
+    @Test
+    public void writeAllocations() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // The names are made up front, both paths need them and they are not what is compared
+        String[] valuesNames = new String[mAllocRows];
+        long[] valuesChannelIds = new long[mAllocRows];
+        String[] writerNames = new String[mAllocRows];
+        long[] writerChannelIds = new long[mAllocRows];
+        for (int i = 0; i < mAllocRows; i++) {
+            valuesChannelIds[i] = mNextChannelId.getAndIncrement();
+            valuesNames[i] = NAME_PREFIX + valuesChannelIds[i];
+            writerChannelIds[i] = mNextChannelId.getAndIncrement();
+            writerNames[i] = NAME_PREFIX + writerChannelIds[i];
+        }
+
+        // Before ChannelWriter: a ContentValues per row, which SQLiteDatabase turns into SQL
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < mAllocRows; i++) {
+                ContentValues values = new ContentValues();
+                values.put(ChannelEntry.COLUMN_CHANNEL_NAME, valuesNames[i]);
+                values.put(ChannelEntry.COLUMN_CHANNEL_ID, valuesChannelIds[i]);
+                database.insert(ChannelEntry.TABLE_NAME, null, values);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            Debug.stopAllocCounting();
+        }
+        long valuesObjects = Debug.getThreadAllocCount();
+        long valuesBytes = Debug.getThreadAllocSize();
+
+        // ChannelWriter: the values are bound into one compiled INSERT
+        ChannelWriter writer = new ChannelWriter(database);
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < mAllocRows; i++) {
+                writer.insert(writerNames[i], writerChannelIds[i]);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            Debug.stopAllocCounting();
+            writer.close();
+        }
+        long writerObjects = Debug.getThreadAllocCount();
+        long writerBytes = Debug.getThreadAllocSize();
+
+        String report = "allocRows=" + mAllocRows
+                + "\n contentValues objects/row=" + String.format(Locale.ROOT, "%.1f",
+                        valuesObjects / (double) mAllocRows)
+                + " bytes/row=" + valuesBytes / mAllocRows
+                + "\n writer objects/row=" + String.format(Locale.ROOT, "%.1f",
+                        writerObjects / (double) mAllocRows)
+                + " bytes/row=" + writerBytes / mAllocRows;
+        Log.i(LOG_TAG, report);
+
+        assertEquals("Channels written by both paths\n" + report, mRows + 2L * mAllocRows,
+                DatabaseUtils.queryNumEntries(database, ChannelEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void countQuery() {
+        // Top the seeded table up to the requested size
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ChannelWriter writer = new ChannelWriter(database);
+        database.beginTransaction();
+        try {
+            for (int i = mRows; i < mCountRows; i++) {
+                long channelId = mNextChannelId.getAndIncrement();
+                writer.insert(NAME_PREFIX + channelId, channelId);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            writer.close();
+        }
+
+        long[] countUriNanos = new long[COUNT_RUNS];
+        long[] getCountNanos = new long[COUNT_RUNS];
+        long countUriRows = 0;
+        long getCountRows = 0;
+        for (int run = 0; run < COUNT_RUNS; run++) {
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(ChannelEntry.CONTENT_COUNT_URI, null, null, null, null);
+            try {
+                countUriRows = cursor.moveToFirst() ? cursor.getLong(0) : -1;
+            } finally {
+                cursor.close();
+            }
+            countUriNanos[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            cursor = mProvider.query(ChannelEntry.CONTENT_URI, new String[] { ChannelEntry._ID },
+                    null, null, null);
+            try {
+                getCountRows = cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            getCountNanos[run] = System.nanoTime() - start;
+        }
+        Arrays.sort(countUriNanos);
+        Arrays.sort(getCountNanos);
+
+        String report = "countRows=" + Math.max(mRows, mCountRows)
+                + "\n count uri p50=" + percentileMicros(countUriNanos, 0.50) + "us"
+                + " max=" + percentileMicros(countUriNanos, 1.0) + "us"
+                + "\n getCount p50=" + percentileMicros(getCountNanos, 0.50) + "us"
+                + " max=" + percentileMicros(getCountNanos, 1.0) + "us";
+        Log.i(LOG_TAG, report);
+
+        assertEquals("Channels counted by both paths\n" + report, getCountRows, countUriRows);
+        assertEquals("Channels counted\n" + report, Math.max(mRows, mCountRows), countUriRows);
+    }
+
+    /*** Reads the _ID in the first column of every row and closes the cursor.*/
+    private static List<Long> readIds(Cursor cursor) {
+        try {
+            List<Long> ids = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the time taken to check whether each channel id is in the table, skipping the
+     * lookup on the index for ids the filter rules out when a filter is given.
+     */
+    private static long timeExistenceChecks(SQLiteDatabase database, ChannelIdBloomFilter filter,
+                                            long[] channelIds) {
+        SQLiteStatement exists = database.compileStatement("SELECT EXISTS (SELECT 1 FROM "
+                + ChannelEntry.TABLE_NAME + " WHERE " + ChannelEntry.COLUMN_CHANNEL_ID + " = ?)");
+        try {
+            long start = System.nanoTime();
+            for (long channelId : channelIds) {
+                if (filter == null || filter.mightContain(channelId)) {
+                    exists.bindLong(1, channelId);
+                    exists.simpleQueryForLong();
+                }
+            }
+            return System.nanoTime() - start;
+        } finally {
+            exists.close();
+        }
+    }
+
+    /*** Returns the i-th generated feed entry.*/
+    private ContentValues feedValues(int i) {
+        ContentValues values = new ContentValues();
+        values.put(FeedEntry.COLUMN_CHANNEL_ID, i % mFeedChannels);
+        values.put(FeedEntry.COLUMN_ENTRY_ID, i / mFeedChannels);
+        values.put(FeedEntry.COLUMN_CREATED_AT, 1500000000000L + i * 1000L);
+        values.put(FeedEntry.COLUMN_FIELD1, String.valueOf(i % 100));
+        return values;
+    }
+
+    private static long percentileMicros(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1000;
+    }
+
+    /*** Runs one random operation, counting busy errors and checking what it reads.*/
+    private void runOperation(Random random, int thread) {
+        try {
+            if (random.nextInt(100) < mReadPercent) {
+                if (random.nextBoolean()) {
+                    readChannel(1 + (long) (random.nextDouble() * mMaxId));
+                } else {
+                    checkPublishedInsert(random.nextInt(mThreads));
+                }
+            } else {
+                int write = random.nextInt(10);
+                if (write < 5) {
+                    long channelId = mNextChannelId.getAndIncrement();
+                    mProvider.insert(ChannelEntry.CONTENT_URI, channelValues(channelId));
+                    mLastInserted.set(thread, channelId);
+                } else if (write < 9) {
+                    Uri uri = ContentUris.withAppendedId(ChannelEntry.CONTENT_URI,
+                            1 + (long) (random.nextDouble() * mMaxId));
+                    mProvider.update(uri, channelValues(mNextChannelId.getAndIncrement()), null, null);
+                } else {
+                    Uri uri = ContentUris.withAppendedId(ChannelEntry.CONTENT_URI,
+                            1 + (long) (random.nextDouble() * mMaxId));
+                    mProvider.delete(uri, null, null);
+                }
+            }
+        } catch (SQLiteDatabaseLockedException e) {
+            mBusyErrors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Looks up the channel last inserted by the given thread, which was committed before it was
+     * published and so must be found.
+     */
+    private void checkPublishedInsert(int thread) {
+        long channelId = mLastInserted.get(thread);
+        if (channelId < 0) {
+            return;
+        }
+        Cursor cursor = mProvider.query(ChannelEntry.CONTENT_URI, new String[] { ChannelEntry._ID },
+                ChannelEntry.COLUMN_CHANNEL_ID + "=?", new String[] { String.valueOf(channelId) }, null);
+        try {
+            if (cursor.getCount() != 1) {
+                Log.e(LOG_TAG, "Channel id " + channelId + " inserted by thread " + thread
+                        + " found " + cursor.getCount() + " times");
+                mViolations.incrementAndGet();
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*** Reads one channel and checks that it still holds the invariant.*/
+    private void readChannel(long id) {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(ChannelEntry.CONTENT_URI, id),
+                null, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                String name = cursor.getString(cursor.getColumnIndexOrThrow(ChannelEntry.COLUMN_CHANNEL_NAME));
+                long channelId = cursor.getLong(cursor.getColumnIndexOrThrow(ChannelEntry.COLUMN_CHANNEL_ID));
+                if (!(NAME_PREFIX + channelId).equals(name)) {
+                    Log.e(LOG_TAG, "Channel " + id + " has name " + name + " and id " + channelId);
+                    mViolations.incrementAndGet();
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
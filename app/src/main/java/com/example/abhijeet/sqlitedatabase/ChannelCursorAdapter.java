@@ -10,6 +10,7 @@ import android.widget.CursorAdapter;
 import android.widget.TextView;
 
 import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+import com.example.abhijeet.sqlitedatabase.data.ChannelTrace;
 
 /*** Created by ABHIJEET on 15-01-2017.*/
 
@@ -42,7 +43,12 @@ public class ChannelCursorAdapter extends CursorAdapter {
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup parent) {
         // Inflate a list item view using the layout specified in list_item.xml
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        ChannelTrace.beginSection("ChannelCursorAdapter.newView");
+        try {
+            return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        } finally {
+            ChannelTrace.endSection();
+        }
     }
 
     /**
@@ -57,6 +63,16 @@ public class ChannelCursorAdapter extends CursorAdapter {
      */
     @Override
     public void bindView(View view, Context context, Cursor cursor) {
+        ChannelTrace.beginSection("ChannelCursorAdapter.bindView");
+        try {
+            bindChannel(view, cursor);
+        } finally {
+            ChannelTrace.endSection();
+        }
+    }
+
+    /*** Sets the name and channel id of the cursor's current row on the list item.*/
+    private void bindChannel(View view, Cursor cursor) {
         // Find individual views that we want to modify in the list item layout
         TextView nameTextView = (TextView) view.findViewById(R.id.name);
         TextView summaryTextView = (TextView) view.findViewById(R.id.summary);
@@ -26,6 +26,7 @@ import android.widget.Toast;
 
 import com.example.abhijeet.sqlitedatabase.data.ChannelContract;
 import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+import com.example.abhijeet.sqlitedatabase.data.ChannelTrace;
 
 /*** Allows user to import a new channel or edit an existing one.*/
 public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>{
@@ -196,7 +197,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         if (mCurrentChannelUri == null) {
             // This is a NEW channel, so insert a new channel into the provider,
             // returning the content URI for the new channel.
-            Uri newUri = getContentResolver().insert(ChannelEntry.CONTENT_URI, values);
+            // The edit is logged and applied in the background, so saving doesn't wait on SQLite
+            Uri newUri = getContentResolver().insert(writeBehind(ChannelEntry.CONTENT_URI), values);
 
             // Show a toast message depending on whether or not the insertion was successful.
             if (newUri == null) {
@@ -213,7 +215,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             // and pass in the new ContentValues. Pass in null for the selection and selection args
             // because mCurrentChannelUri will already identify the correct row in the database that
             // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentChannelUri, values, null, null);
+            int rowsAffected = getContentResolver().update(writeBehind(mCurrentChannelUri), values,
+                    null, null);
 
             // Show a toast message depending on whether or not the update was successful.
             if (rowsAffected == 0) {
@@ -228,6 +231,13 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         }
     }
 
+    /*** Returns the given URI asking the provider for a write-behind edit.*/
+    private static Uri writeBehind(Uri uri) {
+        return uri.buildUpon()
+                .appendQueryParameter(ChannelEntry.QUERY_PARAMETER_WRITE_BEHIND, "true")
+                .build();
+    }
+
     /*** This method is called when the back button is pressed.*/
     @Override
     public void onBackPressed() {
@@ -273,6 +283,16 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        ChannelTrace.beginSection("EditorActivity.onLoadFinished");
+        try {
+            showChannel(cursor);
+        } finally {
+            ChannelTrace.endSection();
+        }
+    }
+
+    /*** Fill the editor fields from the loaded channel.*/
+    private void showChannel(Cursor cursor) {
         // Bail early if the cursor is null or there is less than 1 row in the cursor
         if (cursor == null || cursor.getCount() < 1) {
             return;
@@ -1,16 +1,14 @@
 package com.example.abhijeet.sqlitedatabase;
 
-import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.Intent;
-import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -18,18 +16,34 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ListView;
 
+import com.example.abhijeet.sqlitedatabase.data.ChannelCatalogCache;
 import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+import com.example.abhijeet.sqlitedatabase.data.ChannelQueryStream;
+import com.example.abhijeet.sqlitedatabase.data.ChannelSnapshot;
+import com.example.abhijeet.sqlitedatabase.data.ChannelSnapshotCache;
+import com.example.abhijeet.sqlitedatabase.data.ChannelTrace;
 
 /*** Displays list of channels that were entered and stored in the app.*/
-public class MainActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor>{
-
-    /** Identifier for the channel data loader */
-    private static final int CHANNEL_LOADER = 0;
+public class MainActivity extends AppCompatActivity {
 
     /** Adapter for the ListView */
     ChannelCursorAdapter mCursorAdapter;
 
+    /** In-memory copy of the channels table, used to filter the list without querying SQLite */
+    private ChannelSnapshotCache mSnapshotCache;
+
+    /** Subscription to the channel list query */
+    private ChannelQueryStream.Subscription mChannelSubscription;
+
+    /** Latest cursor delivered by the channel query, shown when no filter is active */
+    private Cursor mChannelCursor;
+
+    /** Cursor over the filtered snapshot rows, or null when no filter is active */
+    private Cursor mFilterCursor;
+
+    /** Text currently typed into the search view */
+    private String mFilter = "";
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -79,8 +93,62 @@ public class MainActivity extends AppCompatActivity implements
             }
         });
 
-        // Kick off the loader
-        getLoaderManager().initLoader(CHANNEL_LOADER, null, this);
+        // Show the channels cached on disk straight away, until the real query comes back
+        mChannelCursor = ChannelCatalogCache.open(this);
+        if (mChannelCursor != null) {
+            mCursorAdapter.swapCursor(mChannelCursor);
+        }
+
+        // Kick off the channel query. It runs on a background thread and again after each batch
+        // of changes, so a burst of writes only refreshes the list once or twice.
+        mChannelSubscription = createChannelStream().subscribe(new ChannelQueryStream.Observer() {
+            @Override
+            public void onNext(Cursor cursor) {
+                ChannelTrace.beginSection("MainActivity.onChannelsLoaded");
+                try {
+                    onChannelsLoaded(cursor);
+                } finally {
+                    ChannelTrace.endSection();
+                }
+            }
+
+            @Override
+            public void onError(RuntimeException e) {
+                Log.e("MainActivity", "Failed to load channels", e);
+            }
+        });
+
+        // Keep a snapshot of the table in memory for filtering. When it changes while a filter
+        // is active, filter again so the list stays current.
+        mSnapshotCache = new ChannelSnapshotCache(getContentResolver(),
+                new ChannelSnapshotCache.Listener() {
+                    @Override
+                    public void onSnapshotChanged(ChannelSnapshot snapshot) {
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!mFilter.isEmpty()) {
+                                    showChannels();
+                                }
+                            }
+                        });
+                    }
+                });
+        mSnapshotCache.start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mSnapshotCache.stop();
+        mChannelSubscription.unsubscribe();
+        mCursorAdapter.swapCursor(null);
+        if (mFilterCursor != null) {
+            mFilterCursor.close();
+        }
+        if (mChannelCursor != null) {
+            mChannelCursor.close();
+        }
     }
 
     @Override
@@ -88,8 +156,69 @@ public class MainActivity extends AppCompatActivity implements
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Filter the list on every keystroke from the in-memory snapshot
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mFilter = newText.trim();
+                showChannels();
+                return true;
+            }
+        });
         return true;
     }
+
+    /**
+     * Shows the channel query's cursor when no filter is active, or else the snapshot rows whose name or
+     * channel id match the filter.
+     */
+    private void showChannels() {
+        if (mFilter.isEmpty()) {
+            showFilterCursor(null);
+            return;
+        }
+
+        // Filtering a large snapshot blocks until every row is checked, so it runs on the
+        // snapshot's background thread and the list keeps what it shows until the result is in
+        mSnapshotCache.filter(mFilter, new ChannelSnapshotCache.FilterListener() {
+            @Override
+            public void onFiltered(final String filter, final Cursor cursor) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Drop the result if the filter was changed again in the meantime
+                        if (isDestroyed() || !filter.equals(mFilter)) {
+                            cursor.close();
+                        } else {
+                            showFilterCursor(cursor);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Shows the given cursor over filtered snapshot rows, or the channel query's cursor if it is
+     * null, and closes the filter cursor shown before.
+     */
+    private void showFilterCursor(Cursor filterCursor) {
+        Cursor oldFilterCursor = mFilterCursor;
+        mFilterCursor = filterCursor;
+        mCursorAdapter.swapCursor(filterCursor != null ? filterCursor : mChannelCursor);
+
+        // The channel cursor is closed when it is replaced, see onChannelsLoaded()
+        if (oldFilterCursor != null) {
+            oldFilterCursor.close();
+        }
+    }
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -130,32 +259,39 @@ public class MainActivity extends AppCompatActivity implements
     }
 
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+    /*** Creates the stream of channel list query results.*/
+    private ChannelQueryStream createChannelStream() {
         // Define a projection that specifies the columns from the table we care about.
         String[] projection = {
                 ChannelEntry._ID,
                 ChannelEntry.COLUMN_CHANNEL_NAME,
                 ChannelEntry.COLUMN_CHANNEL_ID };
 
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
+        return new ChannelQueryStream(getContentResolver(),
                 ChannelEntry.CONTENT_URI,   // Provider content URI to query
                 projection,             // Columns to include in the resulting Cursor
                 null,                   // No selection clause
                 null,                   // No selection arguments
-                null);                  // Default sort order
+                null,                   // Default sort order
+                ChannelQueryStream.DEFAULT_DEBOUNCE_MILLIS);
     }
 
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link ChannelCursorAdapter} with this new cursor containing updated channel data
-        mCursorAdapter.swapCursor(data);
-    }
+    /*** Shows a new result of the channel list query.*/
+    private void onChannelsLoaded(Cursor data) {
+        // Update {@link ChannelCursorAdapter} with this new cursor containing updated channel data,
+        // unless the result of a filter is showing the snapshot instead
+        Cursor oldCursor = mChannelCursor;
+        mChannelCursor = data;
+        if (mFilterCursor == null) {
+            mCursorAdapter.swapCursor(data);
+        }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+        // Unlike a loader's cursors, the stream's cursors (and the cached one) are ours to close
+        if (oldCursor != null) {
+            oldCursor.close();
+        }
+
+        // Each result follows a batch of changes, keep the cold start cache in step with it
+        ChannelCatalogCache.save(this, data);
     }
 }
@@ -0,0 +1,126 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import android.content.ContentValues;
+
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+
+/**
+ * A single channel, with the columns of the channels table as typed fields. Used by
+ * {@link ChannelWriter} to write channels without going through {@link ContentValues}.
+ */
+public final class Channel {
+
+    /** {@link #getId()} of a channel that has not been inserted yet */
+    public static final long NO_ID = -1;
+
+    private final long mId;
+
+    private final String mName;
+
+    private final long mChannelId;
+
+    /**
+     * Constructs a new channel that has not been inserted yet.
+     *
+     * @param name      of the channel, not null
+     * @param channelId ThingSpeak channel id, 0 or more
+     */
+    public Channel(String name, long channelId) {
+        this(NO_ID, name, channelId);
+    }
+
+    /**
+     * Constructs a channel.
+     *
+     * @param id        {@link ChannelEntry#_ID} of the row, or {@link #NO_ID}
+     * @param name      of the channel, not null
+     * @param channelId ThingSpeak channel id, 0 or more
+     */
+    public Channel(long id, String name, long channelId) {
+        checkName(name);
+        checkChannelId(channelId);
+        mId = id;
+        mName = name;
+        mChannelId = channelId;
+    }
+
+    /*** Returns the {@link ChannelEntry#_ID} of the row, or {@link #NO_ID}.*/
+    public long getId() {
+        return mId;
+    }
+
+    /*** Returns the name of the channel.*/
+    public String getName() {
+        return mName;
+    }
+
+    /*** Returns the ThingSpeak channel id.*/
+    public long getChannelId() {
+        return mChannelId;
+    }
+
+    /*** Checks that the name is valid for a channel.*/
+    static void checkName(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Channel requires a name");
+        }
+    }
+
+    /*** Checks that the ThingSpeak channel id is valid for a channel.*/
+    static void checkChannelId(long channelId) {
+        if (channelId < 0) {
+            throw new IllegalArgumentException("Channel requires valid channel Id");
+        }
+    }
+
+    /**
+     * Returns the ThingSpeak channel id in the content values, or 0, the column's default, if
+     * they have none.
+     *
+     * @throws IllegalArgumentException if the channel id is null, not a number or negative
+     */
+    static long channelIdOf(ContentValues values) {
+        if (!values.containsKey(ChannelEntry.COLUMN_CHANNEL_ID)) {
+            return 0;
+        }
+        Long channelId = values.getAsLong(ChannelEntry.COLUMN_CHANNEL_ID);
+        if (channelId == null) {
+            throw new IllegalArgumentException("Channel requires valid channel Id");
+        }
+        checkChannelId(channelId);
+        return channelId;
+    }
+
+    /**
+     * Checks the metadata columns that are present in the content values: latitude and longitude
+     * must be within their ranges and the last entry time must not be negative.
+     */
+    static void checkMetadata(ContentValues values) {
+        Double latitude = values.getAsDouble(ChannelEntry.COLUMN_LATITUDE);
+        if (latitude != null && (latitude < -90 || latitude > 90)) {
+            throw new IllegalArgumentException("Channel requires a latitude between -90 and 90");
+        }
+        Double longitude = values.getAsDouble(ChannelEntry.COLUMN_LONGITUDE);
+        if (longitude != null && (longitude < -180 || longitude > 180)) {
+            throw new IllegalArgumentException("Channel requires a longitude between -180 and 180");
+        }
+        Long lastEntryAt = values.getAsLong(ChannelEntry.COLUMN_LAST_ENTRY_AT);
+        if (lastEntryAt != null && lastEntryAt < 0) {
+            throw new IllegalArgumentException("Channel requires a valid last entry time");
+        }
+    }
+
+    /**
+     * Returns true if the content values only hold columns that a {@link Channel} has, so that
+     * they can be written through a {@link ChannelWriter}.
+     */
+    static boolean hasOnlyChannelColumns(ContentValues values) {
+        for (String key : values.keySet()) {
+            if (!ChannelEntry.COLUMN_CHANNEL_NAME.equals(key)
+                    && !ChannelEntry.COLUMN_CHANNEL_ID.equals(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Small binary copy of the first rows of the channel list, so that MainActivity can show
+ * something on a cold start before the database has been opened and queried.
+ * <p>
+ * The file is read through a memory mapping and served as a cursor straight from the mapped
+ * bytes, without parsing it into objects first. Its layout, all big-endian, is:
+ * <pre>
+ * int   magic ("CHCT")
+ * int   format version
+ * long  time written, in milliseconds
+ * int   row count
+ * row count x { long _id, long channel_id, int name offset, int name length }
+ * UTF-8 bytes of all names
+ * </pre>
+ * The file is rewritten after each batch of changes and replaced atomically by a rename.
+ */
+public final class ChannelCatalogCache {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = ChannelCatalogCache.class.getSimpleName();
+
+    /** Number of rows kept, comfortably more than fit on the first screen */
+    public static final int MAX_ROWS = 50;
+
+    /** Name of the cache file in the app's cache directory */
+    private static final String FILE_NAME = "channel_catalog.bin";
+
+    private static final int MAGIC = 0x43484354;
+
+    /** Incremented whenever the layout changes; files of other versions are ignored */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+
+    private static final int RECORD_SIZE = 8 + 8 + 4 + 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Writes cache files one after another, off the main thread */
+    private static final Executor sWriteExecutor = Executors.newSingleThreadExecutor();
+
+    private ChannelCatalogCache() {
+    }
+
+    /**
+     * Returns a cursor over the cached rows with the {@link ChannelSnapshot#COLUMNS}, or null if
+     * there is no valid cache file. A file whose header or name offsets do not fit its size is
+     * treated as missing. Cheap enough to call on the main thread.
+     */
+    public static Cursor open(Context context) {
+        File file = new File(context.getCacheDir(), FILE_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            MappedByteBuffer buffer;
+            try {
+                // The mapping stays valid after the file is closed
+                buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            } finally {
+                in.close();
+            }
+            if (buffer.capacity() < HEADER_SIZE
+                    || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                return null;
+            }
+            int count = buffer.getInt(16);
+            if (count < 0 || HEADER_SIZE + (long) count * RECORD_SIZE > buffer.capacity()) {
+                return null;
+            }
+            if (!hasValidNames(buffer, count)) {
+                Log.w(LOG_TAG, "Ignoring " + file + " with names outside the file");
+                return null;
+            }
+            return new CatalogCursor(buffer, count);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to read " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the name of every record lies inside the name area after the records, so
+     * that reading it can never go past the end of the file.
+     */
+    private static boolean hasValidNames(ByteBuffer buffer, int count) {
+        long namesStart = HEADER_SIZE + (long) count * RECORD_SIZE;
+        for (int row = 0; row < count; row++) {
+            int record = HEADER_SIZE + row * RECORD_SIZE;
+            long offset = buffer.getInt(record + 16);
+            long length = buffer.getInt(record + 20);
+            if (offset < namesStart || length < 0 || offset + length > buffer.capacity()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the first {@link #MAX_ROWS} rows of the cursor, which must have the
+     * {@link ChannelSnapshot#COLUMNS}, and writes them to the cache file in the background.
+     * The cursor's position is left unchanged.
+     */
+    public static void save(Context context, Cursor cursor) {
+        final File file = new File(context.getCacheDir(), FILE_NAME);
+
+        int idColumnIndex = cursor.getColumnIndexOrThrow(ChannelEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndexOrThrow(ChannelEntry.COLUMN_CHANNEL_NAME);
+        int channelIdColumnIndex = cursor.getColumnIndexOrThrow(ChannelEntry.COLUMN_CHANNEL_ID);
+
+        final int count = Math.min(MAX_ROWS, cursor.getCount());
+        final long[] ids = new long[count];
+        final long[] channelIds = new long[count];
+        final byte[][] names = new byte[count][];
+        int position = cursor.getPosition();
+        for (int row = 0; row < count && cursor.moveToPosition(row); row++) {
+            ids[row] = cursor.getLong(idColumnIndex);
+            channelIds[row] = cursor.getLong(channelIdColumnIndex);
+            String name = cursor.getString(nameColumnIndex);
+            names[row] = name == null ? new byte[0] : name.getBytes(UTF_8);
+        }
+        cursor.moveToPosition(position);
+
+        sWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(file, ids, channelIds, names, count);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Failed to write " + file, e);
+                }
+            }
+        });
+    }
+
+    private static void write(File file, long[] ids, long[] channelIds, byte[][] names, int count)
+            throws IOException {
+        int namesSize = 0;
+        for (int row = 0; row < count; row++) {
+            namesSize += names[row].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * RECORD_SIZE + namesSize);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putInt(count);
+        int nameOffset = HEADER_SIZE + count * RECORD_SIZE;
+        for (int row = 0; row < count; row++) {
+            buffer.putLong(ids[row]);
+            buffer.putLong(channelIds[row]);
+            buffer.putInt(nameOffset);
+            buffer.putInt(names[row].length);
+            nameOffset += names[row].length;
+        }
+        for (int row = 0; row < count; row++) {
+            buffer.put(names[row]);
+        }
+
+        // Write next to the real file and rename, so readers never see a partial file
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(buffer.array());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    /*** Cursor that reads each value straight out of the mapped cache file.*/
+    private static final class CatalogCursor extends AbstractCursor {
+
+        private final ByteBuffer mBuffer;
+
+        private final int mCount;
+
+        CatalogCursor(ByteBuffer buffer, int count) {
+            mBuffer = buffer;
+            mCount = count;
+        }
+
+        /*** Returns the offset of the given field of the current row.*/
+        private int field(int offset) {
+            return HEADER_SIZE + getPosition() * RECORD_SIZE + offset;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return ChannelSnapshot.COLUMNS;
+        }
+
+        @Override
+        public String getString(int column) {
+            if (column == 1) {
+                int offset = mBuffer.getInt(field(16));
+                int length = mBuffer.getInt(field(20));
+                byte[] name = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    name[i] = mBuffer.get(offset + i);
+                }
+                return new String(name, UTF_8);
+            }
+            return Long.toString(getLong(column));
+        }
+
+        @Override
+        public long getLong(int column) {
+            switch (column) {
+                case 0:
+                    return mBuffer.getLong(field(0));
+                case 2:
+                    return mBuffer.getLong(field(8));
+                default:
+                    // Like SQLite, treat a name read as a number as 0
+                    return 0;
+            }
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return false;
+        }
+    }
+}
@@ -3,9 +3,13 @@ package com.example.abhijeet.sqlitedatabase.data;
 /*** Created by ABHIJEET on 13-01-2017.*/
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 
+import java.util.Arrays;
+
 /*** API Contract for the <app_name> app.*/
 public class ChannelContract {
 
@@ -35,6 +39,66 @@ public class ChannelContract {
      */
     public static final String PATH_CHANNELS = "channels";
 
+    /**
+     * Path appended to the channels path for the number of channels, for instance
+     * content://com.example.abhijeet.sqlitedatabase/channels/count
+     */
+    public static final String PATH_COUNT = "count";
+
+    /**
+     * Path appended to the channels path for grouped channel counts, for instance
+     * content://com.example.abhijeet.sqlitedatabase/channels/stats?group_by=channel_id
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Path appended to the channels path for the change log, for instance
+     * content://com.example.abhijeet.sqlitedatabase/channels/changes?since=42
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Path appended to the channels path for the channel list with its metadata, for instance
+     * content://com.example.abhijeet.sqlitedatabase/channels/catalog
+     */
+    public static final String PATH_CATALOG = "catalog";
+
+    /**
+     * Path appended to a single channel's path for its tags, for instance
+     * content://com.example.abhijeet.sqlitedatabase/channels/3/tags
+     */
+    public static final String PATH_TAGS = "tags";
+
+    /**
+     * Path appended to a single channel's path for its field labels, for instance
+     * content://com.example.abhijeet.sqlitedatabase/channels/3/fields
+     */
+    public static final String PATH_FIELDS = "fields";
+
+    /**
+     * Path appended to the channels path for the channels inside a bounding box, for instance
+     * content://com.example.abhijeet.sqlitedatabase/channels/within?min_lat=51&max_lat=52&...
+     */
+    public static final String PATH_WITHIN = "within";
+
+    /**
+     * Path appended to the channels path for the channels nearest to a point, for instance
+     * content://com.example.abhijeet.sqlitedatabase/channels/nearest?lat=51.5&lon=-0.1&limit=10
+     */
+    public static final String PATH_NEAREST = "nearest";
+
+    /**
+     * Path appended to base content URI for the feed entries of all channels, for instance
+     * content://com.example.abhijeet.sqlitedatabase/feeds?channel_id=9
+     */
+    public static final String PATH_FEEDS = "feeds";
+
+    /**
+     * Path appended to the feeds path for the latest entry of every channel, for instance
+     * content://com.example.abhijeet.sqlitedatabase/feeds/latest
+     */
+    public static final String PATH_LATEST = "latest";
+
 
     /**
      * Inner class that defines constant values for the channels database table.
@@ -45,6 +109,212 @@ public class ChannelContract {
         /** The content URI to access the channel data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_CHANNELS);
 
+        /**
+         * The content URI for the number of channels. The cursor holds a single row with a single
+         * {@link #COLUMN_COUNT} column; a selection may be given to count only matching channels.
+         */
+        public static final Uri CONTENT_COUNT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_COUNT);
+
+        /**
+         * The content URI for channel counts grouped by the column given in the
+         * {@link #QUERY_PARAMETER_GROUP_BY} query parameter. The cursor holds one row per group,
+         * with the grouped column and {@link #COLUMN_COUNT}.
+         */
+        public static final Uri CONTENT_STATS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STATS);
+
+        /*** Query parameter of {@link #CONTENT_STATS_URI} naming the column to group by.*/
+        public static final String QUERY_PARAMETER_GROUP_BY = "group_by";
+
+        /**
+         * The content URI for the channels that changed after the version given in the
+         * {@link #QUERY_PARAMETER_SINCE} query parameter, in version order. See
+         * {@link ChannelChangeEntry} for the columns.
+         */
+        public static final Uri CONTENT_CHANGES_URI = Uri.withAppendedPath(CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * Query parameter of {@link #CONTENT_CHANGES_URI} with the highest
+         * {@link ChannelChangeEntry#COLUMN_VERSION} the caller has already seen. Defaults to 0,
+         * which returns every channel. If it is below the change log's horizon, the deletes the
+         * caller missed may be gone; the cursor's extras then say so with
+         * {@link ChannelChangeEntry#EXTRA_RESYNC_REQUIRED}.
+         */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /**
+         * The content URI for the channel catalog: every channel with its metadata, its tags and
+         * its field labels, sorted by name unless a sort order is given. The projection is
+         * ignored, the cursor has the columns of {@link #CATALOG_COLUMNS}. A selection may be
+         * given.
+         */
+        public static final Uri CONTENT_CATALOG_URI = Uri.withAppendedPath(CONTENT_URI, PATH_CATALOG);
+
+        /**
+         * The content URI for the channels whose location is inside the bounding box given by
+         * the {@link #QUERY_PARAMETER_MIN_LATITUDE}, {@link #QUERY_PARAMETER_MAX_LATITUDE},
+         * {@link #QUERY_PARAMETER_MIN_LONGITUDE} and {@link #QUERY_PARAMETER_MAX_LONGITUDE} query
+         * parameters, all required. Boxes that cross the 180th meridian are not supported. The
+         * projection, selection and sort order are ignored, the cursor has the
+         * {@link #LOCATION_COLUMNS}.
+         */
+        public static final Uri CONTENT_WITHIN_URI = Uri.withAppendedPath(CONTENT_URI, PATH_WITHIN);
+
+        /**
+         * The content URI for the channels nearest to the point given by the
+         * {@link #QUERY_PARAMETER_LATITUDE} and {@link #QUERY_PARAMETER_LONGITUDE} query
+         * parameters, nearest first. At most {@link #QUERY_PARAMETER_LIMIT} channels are returned.
+         * Distances are measured on a plane scaled to the point's latitude, which ranks nearby
+         * channels correctly but is not exact across large distances. The projection, selection
+         * and sort order are ignored, the cursor has the {@link #LOCATION_COLUMNS}.
+         */
+        public static final Uri CONTENT_NEAREST_URI = Uri.withAppendedPath(CONTENT_URI, PATH_NEAREST);
+
+        /** Query parameters of {@link #CONTENT_WITHIN_URI}, in degrees. */
+        public static final String QUERY_PARAMETER_MIN_LATITUDE = "min_lat";
+        public static final String QUERY_PARAMETER_MAX_LATITUDE = "max_lat";
+        public static final String QUERY_PARAMETER_MIN_LONGITUDE = "min_lon";
+        public static final String QUERY_PARAMETER_MAX_LONGITUDE = "max_lon";
+
+        /** Query parameters of {@link #CONTENT_NEAREST_URI}, in degrees. */
+        public static final String QUERY_PARAMETER_LATITUDE = "lat";
+        public static final String QUERY_PARAMETER_LONGITUDE = "lon";
+
+        /*** Query parameter of {@link #CONTENT_NEAREST_URI}: most channels to return, 10 by default.*/
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /*** Columns of the {@link #CONTENT_WITHIN_URI} and {@link #CONTENT_NEAREST_URI}.*/
+        public static final String[] LOCATION_COLUMNS = {
+                ChannelEntry._ID,
+                ChannelEntry.COLUMN_CHANNEL_NAME,
+                ChannelEntry.COLUMN_CHANNEL_ID,
+                ChannelEntry.COLUMN_LATITUDE,
+                ChannelEntry.COLUMN_LONGITUDE };
+
+        /*** Columns of the {@link #CONTENT_CATALOG_URI}.*/
+        public static final String[] CATALOG_COLUMNS = {
+                ChannelEntry._ID,
+                ChannelEntry.COLUMN_CHANNEL_NAME,
+                ChannelEntry.COLUMN_CHANNEL_ID,
+                ChannelEntry.COLUMN_DESCRIPTION,
+                ChannelEntry.COLUMN_LATITUDE,
+                ChannelEntry.COLUMN_LONGITUDE,
+                ChannelEntry.COLUMN_LAST_ENTRY_AT,
+                ChannelEntry.COLUMN_TAGS,
+                ChannelEntry.COLUMN_FIELD_LABELS };
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} for bulk inserts. When "true", channels whose
+         * {@link #COLUMN_CHANNEL_ID} is already in the table are skipped instead of inserted again.
+         */
+        public static final String QUERY_PARAMETER_SKIP_EXISTING = "skip_existing";
+
+        /**
+         * Query parameter for inserting, updating or deleting a single channel. When "true", the
+         * edit is written to a log and acknowledged straight away, then applied to the table in
+         * the background. Queries and later writes through the provider already see it, as
+         * they wait for the logged edits to be applied first. Only plain
+         * {@link #COLUMN_CHANNEL_NAME} and {@link #COLUMN_CHANNEL_ID} edits are logged, others
+         * are written directly. A logged update or delete reports one row if the channel exists,
+         * counting the edits still in the log, and none otherwise. An edit that the database
+         * then rejects is not applied; listeners of the channel are notified again when that
+         * happens.
+         */
+        public static final String QUERY_PARAMETER_WRITE_BEHIND = "write_behind";
+
+        /**
+         * Method for {@link ContentResolver#call(Uri, String, String, Bundle)} on
+         * {@link #CONTENT_URI} that reads one page of channels in _ID order, packed into
+         * primitive arrays instead of a cursor. The whole page crosses binder in a single call.
+         * <p>
+         * Extras: {@link #EXTRA_AFTER_ID} and {@link #EXTRA_LIMIT}, both optional. The result
+         * holds {@link #EXTRA_IDS}, {@link #EXTRA_CHANNEL_IDS}, {@link #EXTRA_NAMES},
+         * {@link #EXTRA_NAME_OFFSETS} and {@link #EXTRA_HAS_MORE}. Use
+         * {@link #readChannels(ContentResolver)} to read every page.
+         */
+        public static final String METHOD_READ_CHANNELS = "read_channels";
+
+        /*** Long extra: only channels with a greater _ID are read. Defaults to 0.*/
+        public static final String EXTRA_AFTER_ID = "after_id";
+
+        /*** Int extra: most channels to read in one page. Capped by the provider.*/
+        public static final String EXTRA_LIMIT = "limit";
+
+        /*** Long array result: the _ID of each channel of the page, in increasing order.*/
+        public static final String EXTRA_IDS = "ids";
+
+        /*** Long array result: the {@link #COLUMN_CHANNEL_ID} of each channel of the page.*/
+        public static final String EXTRA_CHANNEL_IDS = "channel_ids";
+
+        /*** Byte array result: the UTF-8 names of all channels of the page, back to back.*/
+        public static final String EXTRA_NAMES = "names";
+
+        /**
+         * Int array result: where each channel's name starts in {@link #EXTRA_NAMES}, with one
+         * extra entry marking the end of the last name.
+         */
+        public static final String EXTRA_NAME_OFFSETS = "name_offsets";
+
+        /*** Boolean result: true if there may be channels after this page.*/
+        public static final String EXTRA_HAS_MORE = "has_more";
+
+        /**
+         * Reads every channel through {@link #METHOD_READ_CHANNELS}, one page per binder call,
+         * without any cursor. Meant for a background thread, for instance in another process of
+         * the app that needs the whole catalog.
+         */
+        public static ChannelSnapshot readChannels(ContentResolver resolver) {
+            long[] ids = new long[0];
+            long[] channelIds = new long[0];
+            byte[] names = new byte[0];
+            int[] nameOffsets = new int[] { 0 };
+            int count = 0;
+            int namesLength = 0;
+
+            long afterId = 0;
+            while (true) {
+                Bundle extras = new Bundle();
+                extras.putLong(EXTRA_AFTER_ID, afterId);
+                Bundle page = resolver.call(CONTENT_URI, METHOD_READ_CHANNELS, null, extras);
+                if (page == null) {
+                    throw new IllegalStateException("Provider does not support " + METHOD_READ_CHANNELS);
+                }
+                long[] pageIds = page.getLongArray(EXTRA_IDS);
+                long[] pageChannelIds = page.getLongArray(EXTRA_CHANNEL_IDS);
+                byte[] pageNames = page.getByteArray(EXTRA_NAMES);
+                int[] pageNameOffsets = page.getIntArray(EXTRA_NAME_OFFSETS);
+                int pageCount = pageIds.length;
+
+                // Append the page, growing the arrays by at least half each time
+                if (count + pageCount > ids.length) {
+                    int capacity = Math.max(count + pageCount, ids.length + ids.length / 2);
+                    ids = Arrays.copyOf(ids, capacity);
+                    channelIds = Arrays.copyOf(channelIds, capacity);
+                    nameOffsets = Arrays.copyOf(nameOffsets, capacity + 1);
+                }
+                if (namesLength + pageNames.length > names.length) {
+                    names = Arrays.copyOf(names,
+                            Math.max(namesLength + pageNames.length, names.length + names.length / 2));
+                }
+                System.arraycopy(pageIds, 0, ids, count, pageCount);
+                System.arraycopy(pageChannelIds, 0, channelIds, count, pageCount);
+                System.arraycopy(pageNames, 0, names, namesLength, pageNames.length);
+                for (int row = 0; row < pageCount; row++) {
+                    nameOffsets[count + row + 1] = namesLength + pageNameOffsets[row + 1];
+                }
+                count += pageCount;
+                namesLength += pageNames.length;
+
+                if (pageCount == 0 || !page.getBoolean(EXTRA_HAS_MORE)) {
+                    break;
+                }
+                afterId = pageIds[pageCount - 1];
+            }
+
+            return ChannelSnapshot.fromPackedColumns(Arrays.copyOf(ids, count),
+                    Arrays.copyOf(channelIds, count), Arrays.copyOf(names, namesLength),
+                    Arrays.copyOf(nameOffsets, count + 1));
+        }
+
         /*** The MIME type of the {@link #CONTENT_URI} for a list of channels.*/
         public static final String CONTENT_LIST_TYPE =
                 ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANNELS;
@@ -53,6 +323,36 @@ public class ChannelContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANNELS;
 
+        /*** The MIME type of the {@link #CONTENT_COUNT_URI}.*/
+        public static final String CONTENT_COUNT_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANNELS
+                        + "." + PATH_COUNT;
+
+        /*** The MIME type of the {@link #CONTENT_STATS_URI}.*/
+        public static final String CONTENT_STATS_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANNELS
+                        + "." + PATH_STATS;
+
+        /*** The MIME type of the {@link #CONTENT_WITHIN_URI}.*/
+        public static final String CONTENT_WITHIN_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANNELS
+                        + "." + PATH_WITHIN;
+
+        /*** The MIME type of the {@link #CONTENT_NEAREST_URI}.*/
+        public static final String CONTENT_NEAREST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANNELS
+                        + "." + PATH_NEAREST;
+
+        /*** The MIME type of the {@link #CONTENT_CATALOG_URI}.*/
+        public static final String CONTENT_CATALOG_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANNELS
+                        + "." + PATH_CATALOG;
+
+        /*** The MIME type of the {@link #CONTENT_CHANGES_URI}.*/
+        public static final String CONTENT_CHANGES_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANNELS
+                        + "." + PATH_CHANGES;
+
         /*** Name of database table for channels*/
         public final static String TABLE_NAME = "channels";
 
@@ -76,5 +376,373 @@ public class ChannelContract {
          * Type: INTEGER
          */
         public final static String COLUMN_CHANNEL_ID = "channel_id";
+
+        /**
+         * Description of the channel, null if it has none.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_DESCRIPTION = "description";
+
+        /**
+         * Latitude of the channel in degrees, from -90 to 90, null if it has no location.
+         * <p>
+         * Type: REAL
+         */
+        public final static String COLUMN_LATITUDE = "latitude";
+
+        /**
+         * Longitude of the channel in degrees, from -180 to 180, null if it has no location.
+         * <p>
+         * Type: REAL
+         */
+        public final static String COLUMN_LONGITUDE = "longitude";
+
+        /**
+         * Time of the channel's last feed entry, in milliseconds since the epoch, null if it has
+         * none.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LAST_ENTRY_AT = "last_entry_at";
+
+        /**
+         * Names of the channel's tags separated by commas, returned by
+         * {@link #CONTENT_CATALOG_URI}. Null if the channel has no tags.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_TAGS = "tags";
+
+        /**
+         * Labels of the channel's fields in field order separated by commas, returned by
+         * {@link #CONTENT_CATALOG_URI}. Null if the channel has no labelled fields.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_FIELD_LABELS = "field_labels";
+
+        /*** Name of the index on {@link #COLUMN_CHANNEL_ID}*/
+        public final static String INDEX_CHANNEL_ID = "channels_channel_id_idx";
+
+        /**
+         * Name of the index that covers every column of the {@link #CONTENT_CATALOG_URI} in
+         * name order, so the catalog is read from the index alone
+         */
+        public final static String INDEX_CATALOG = "channels_catalog_idx";
+
+        /**
+         * Number of channels, returned by {@link #CONTENT_COUNT_URI} and {@link #CONTENT_STATS_URI}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_COUNT = "count";
+    }
+
+    /**
+     * Inner class that defines constant values for the change log of the channels table.
+     * The log holds one entry per channel that was ever inserted, updated or deleted: the
+     * {@link #_ID} of the channel, the last operation on it and the version at which that
+     * happened. Versions only ever grow, so a consumer that remembers the highest version it has
+     * seen can ask {@link ChannelEntry#CONTENT_CHANGES_URI} for everything after it.
+     * <p>
+     * Rows from {@link ChannelEntry#CONTENT_CHANGES_URI} also carry the current
+     * {@link ChannelEntry#COLUMN_CHANNEL_NAME} and {@link ChannelEntry#COLUMN_CHANNEL_ID} of the
+     * channel, which are null for deleted channels.
+     */
+    public static final class ChannelChangeEntry implements BaseColumns {
+
+        /*** Name of database table for the change log*/
+        public final static String TABLE_NAME = "channel_changes";
+
+        /**
+         * {@link ChannelEntry#_ID} of the channel that changed. Each channel has at most one entry,
+         * older entries are replaced as the channel changes again.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Version of the change, increasing with every write to the channels table.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_VERSION = "version";
+
+        /**
+         * Last operation on the channel, one of {@link #OP_INSERT}, {@link #OP_UPDATE} or
+         * {@link #OP_DELETE}. Consumers should treat inserts and updates alike, since an insert
+         * followed by an update is logged as a single update.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_OP = "op";
+
+        /** Possible values for the operation of a change. */
+        public static final String OP_INSERT = "insert";
+        public static final String OP_UPDATE = "update";
+        public static final String OP_DELETE = "delete";
+
+        /*** Name of the single-row table holding the horizon of the change log*/
+        public final static String HORIZON_TABLE_NAME = "channel_change_horizon";
+
+        /**
+         * Highest version whose delete entries may have been expired. Entries of deleted
+         * channels are kept for a while and then dropped, so that the log does not keep growing
+         * as channels come and go; entries of existing channels are never dropped.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_HORIZON = "horizon";
+
+        /*** Name of the index on the delete entries, used to expire them*/
+        public final static String INDEX_DELETES = "channel_changes_deletes_idx";
+
+        /**
+         * Boolean in the extras of a {@link ChannelEntry#CONTENT_CHANGES_URI} cursor, true if
+         * deletes after the requested version may have been expired. The caller should then
+         * throw away its copy and read every channel again.
+         */
+        public static final String EXTRA_RESYNC_REQUIRED = "resync_required";
+
+        /*** Long in the extras of a changes cursor, the log's current {@link #COLUMN_HORIZON}.*/
+        public static final String EXTRA_HORIZON = "horizon";
+    }
+
+    /**
+     * Inner class that defines constant values for the tags table. Tag names are unique, and
+     * channels are linked to their tags through {@link ChannelTagEntry}.
+     */
+    public static final class TagEntry implements BaseColumns {
+
+        /*** Name of database table for tags*/
+        public final static String TABLE_NAME = "tags";
+
+        /**
+         * Unique ID number for the tag.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Name of the tag, unique.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_TAG_NAME = "name";
+
+        /**
+         * The MIME type of the tags of a channel,
+         * content://com.example.abhijeet.sqlitedatabase/channels/#/tags
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_TAGS;
+
+        /*** Returns the content URI for the tags of the channel with the given _ID.*/
+        public static Uri contentUriForChannel(long channelRowId) {
+            return Uri.withAppendedPath(
+                    ContentUris.withAppendedId(ChannelEntry.CONTENT_URI, channelRowId), PATH_TAGS);
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the table linking channels to their tags.
+     * Rows go away with their channel.
+     */
+    public static final class ChannelTagEntry {
+
+        /*** Name of database table for channel tags*/
+        public final static String TABLE_NAME = "channel_tags";
+
+        /**
+         * {@link ChannelEntry#_ID} of the channel.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CHANNEL_ROW_ID = "channel_row_id";
+
+        /**
+         * {@link TagEntry#_ID} of the tag.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TAG_ID = "tag_id";
+
+        /*** Name of the index for finding the channels with a tag*/
+        public final static String INDEX_TAG_ID = "channel_tags_tag_id_idx";
+    }
+
+    /**
+     * Inner class that defines constant values for the field labels of channels. A ThingSpeak
+     * channel has up to eight fields, numbered from 1. Rows go away with their channel.
+     */
+    public static final class ChannelFieldEntry {
+
+        /*** Name of database table for channel field labels*/
+        public final static String TABLE_NAME = "channel_fields";
+
+        /**
+         * {@link ChannelEntry#_ID} of the channel.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CHANNEL_ROW_ID = "channel_row_id";
+
+        /**
+         * Number of the field, from 1 to {@link #MAX_FIELD_NUMBER}. Also returned as _id by the
+         * fields URI.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_FIELD_NUMBER = "field_number";
+
+        /**
+         * Label of the field.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_FIELD_LABEL = "label";
+
+        /*** Highest field number of a ThingSpeak channel*/
+        public static final int MAX_FIELD_NUMBER = 8;
+
+        /**
+         * The MIME type of the field labels of a channel,
+         * content://com.example.abhijeet.sqlitedatabase/channels/#/fields
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_FIELDS;
+
+        /*** Returns the content URI for the field labels of the channel with the given _ID.*/
+        public static Uri contentUriForChannel(long channelRowId) {
+            return Uri.withAppendedPath(
+                    ContentUris.withAppendedId(ChannelEntry.CONTENT_URI, channelRowId), PATH_FIELDS);
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the spatial index of channel locations, an
+     * R*Tree virtual table kept in step with the channels table by triggers. Each channel with
+     * both a latitude and a longitude has one entry, a box of zero size at its location.
+     * <p>
+     * Where SQLite was built without the R*Tree module, the table does not exist and the
+     * location queries use {@link #INDEX_LOCATION} on the channels table instead.
+     */
+    public static final class ChannelLocationEntry {
+
+        /*** Name of the R*Tree virtual table*/
+        public final static String TABLE_NAME = "channel_locations";
+
+        /**
+         * {@link ChannelEntry#_ID} of the channel.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ID = "id";
+
+        /** Bounds of the entry, in degrees. Both pairs are equal for a channel's location. */
+        public final static String COLUMN_MIN_LATITUDE = "min_lat";
+        public final static String COLUMN_MAX_LATITUDE = "max_lat";
+        public final static String COLUMN_MIN_LONGITUDE = "min_lon";
+        public final static String COLUMN_MAX_LONGITUDE = "max_lon";
+
+        /*** Name of the index on the channels table used when there is no R*Tree*/
+        public final static String INDEX_LOCATION = "channels_location_idx";
+    }
+
+    /**
+     * Inner class that defines constant values for the feed entries of channels. Feed entries are
+     * not kept in the channels database: they are spread over several shard databases by
+     * {@link FeedShards}, each channel's entries in one shard, so that imports for different
+     * channels can write at the same time.
+     * <p>
+     * Entries are keyed by channel id and entry id; inserting an entry that is already stored
+     * replaces it. The _id column of the cursors is the entry id for the feeds URI, and the
+     * channel id for the latest URI.
+     */
+    public static final class FeedEntry implements BaseColumns {
+
+        /** The content URI to access the feed entries in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_FEEDS);
+
+        /**
+         * The content URI for the latest entry of every channel, one row per channel in channel
+         * id order. Answered by querying every shard at once and merging the results.
+         */
+        public static final Uri CONTENT_LATEST_URI = Uri.withAppendedPath(CONTENT_URI, PATH_LATEST);
+
+        /**
+         * Query parameter of the feeds URI that restricts a query to one channel, so that only
+         * the shard holding it is read. Without it every shard is read, and the sort order of
+         * the query only applies within each shard: the result holds the sorted entries of one
+         * shard after another, not all entries in that order.
+         */
+        public static final String QUERY_PARAMETER_CHANNEL_ID = "channel_id";
+
+        /*** Name of database table for feed entries, in every shard*/
+        public final static String TABLE_NAME = "feed_entries";
+
+        /**
+         * ThingSpeak id of the channel the entry belongs to.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CHANNEL_ID = "channel_id";
+
+        /**
+         * ThingSpeak id of the entry, growing within a channel.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ENTRY_ID = "entry_id";
+
+        /**
+         * Time the entry was created, in milliseconds since the epoch.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CREATED_AT = "created_at";
+
+        /**
+         * Values of the channel's fields, null where the entry has none. The field labels are
+         * in {@link ChannelFieldEntry}.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_FIELD1 = "field1";
+        public final static String COLUMN_FIELD2 = "field2";
+        public final static String COLUMN_FIELD3 = "field3";
+        public final static String COLUMN_FIELD4 = "field4";
+        public final static String COLUMN_FIELD5 = "field5";
+        public final static String COLUMN_FIELD6 = "field6";
+        public final static String COLUMN_FIELD7 = "field7";
+        public final static String COLUMN_FIELD8 = "field8";
+
+        /*** Field value columns, in field number order*/
+        public static final String[] FIELD_COLUMNS = {
+                COLUMN_FIELD1, COLUMN_FIELD2, COLUMN_FIELD3, COLUMN_FIELD4,
+                COLUMN_FIELD5, COLUMN_FIELD6, COLUMN_FIELD7, COLUMN_FIELD8 };
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of feed entries.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_FEEDS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_LATEST_URI}, one entry per channel.
+         */
+        public static final String CONTENT_LATEST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_FEEDS
+                        + "." + PATH_LATEST;
+
+        /*** Returns the content URI for the feed entries of the channel with the given channel id.*/
+        public static Uri contentUriForChannel(long channelId) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_CHANNEL_ID, String.valueOf(channelId))
+                    .build();
+        }
     }
 }
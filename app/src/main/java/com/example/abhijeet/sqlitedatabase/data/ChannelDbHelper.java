@@ -3,29 +3,182 @@ package com.example.abhijeet.sqlitedatabase.data;
 /*** Created by ABHIJEET on 13-01-2017.*/
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
 
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelChangeEntry;
 import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelFieldEntry;
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelLocationEntry;
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelTagEntry;
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.TagEntry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /*** Database helper for <app_name> app. Manages database creation and version management.*/
 public class ChannelDbHelper extends SQLiteOpenHelper {
 
+    /** Tag for the log messages */
+    public static final String LOG_TAG = ChannelDbHelper.class.getSimpleName();
+
     /** Name of the database file */
     private static final String DATABASE_NAME = "shelter.db";
 
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 8;
 
     /**
-     * Constructs a new instance of {@link ChannelDbHelper}.
+     * Number of versions a delete stays in the change log. A client that has not caught up for
+     * longer than this has to read every channel again.
+     */
+    static final int DELETE_RETENTION_VERSIONS = 10000;
+
+    /** Executor that runs snapshots one after another, off the calling thread */
+    private static final Executor sBackupExecutor = Executors.newSingleThreadExecutor();
+
+    /** Times a snapshot tries to checkpoint the WAL while readers or writers keep it busy */
+    private static final int CHECKPOINT_ATTEMPTS = 5;
+
+    /** Pause between two checkpoint attempts */
+    private static final long CHECKPOINT_RETRY_MILLIS = 100;
+
+    /** Where the database is kept. */
+    public enum StorageMode {
+        /** The "shelter.db" file in the app's database directory. This is the default. */
+        FILE,
+        /** An in-memory database, gone when the helper is closed. */
+        MEMORY,
+        /**
+         * A uniquely named file in the app's database directory, without a rollback journal or
+         * synced writes, deleted when the helper is closed. For tests, benchmarks and caches that
+         * may be lost on a crash.
+         */
+        TEMP_FILE,
+        /**
+         * A uniquely named file in the app's database directory, set up like {@link #FILE} with
+         * write-ahead logging and synced writes, deleted when the helper is closed. For stress
+         * tests and benchmarks that should see the locking and I/O of the real database.
+         */
+        TEMP_WAL_FILE;
+
+        /*** Returns true if the database is deleted when its helper is closed.*/
+        public boolean isTemporary() {
+            return this == TEMP_FILE || this == TEMP_WAL_FILE;
+        }
+
+        /*** Returns true if the database uses write-ahead logging.*/
+        public boolean isWriteAheadLogging() {
+            return this == FILE || this == TEMP_WAL_FILE;
+        }
+    }
+
+    /** Context used to locate the database file on disk */
+    private final Context mContext;
+
+    /** Where this helper keeps its database */
+    private final StorageMode mStorageMode;
+
+    /** Held by {@link #snapshot(File)} and {@link #restore(File)}, so neither runs during the other */
+    private final Object mBackupLock = new Object();
+
+    /**
+     * Callback for {@link #snapshotInBackground(File, SnapshotCallback)}. Both methods are called
+     * on the backup thread, not on the main thread.
+     */
+    public interface SnapshotCallback {
+
+        /**
+         * Called when the snapshot has been written.
+         *
+         * @param pagesWritten number of database pages that differed from the previous copy
+         */
+        void onSnapshotComplete(int pagesWritten);
+
+        /**
+         * Called when the snapshot could not be written.
+         *
+         * @param e the {@link IOException}, {@link SQLiteException} or
+         *          {@link IllegalStateException} that stopped it
+         */
+        void onSnapshotFailed(Exception e);
+    }
+
+    /**
+     * Constructs a new instance of {@link ChannelDbHelper} for the "shelter.db" file.
      *
      * @param context of the app
      */
     public ChannelDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, StorageMode.FILE);
+    }
+
+    /**
+     * Constructs a new instance of {@link ChannelDbHelper}.
+     *
+     * @param context     of the app
+     * @param storageMode where to keep the database
+     */
+    public ChannelDbHelper(Context context, StorageMode storageMode) {
+        super(context, databaseNameFor(storageMode), null, DATABASE_VERSION);
+        mContext = context;
+        mStorageMode = storageMode;
+
+        // Write-ahead logging lets readers (and the snapshot copy) run while the provider writes
+        if (storageMode.isWriteAheadLogging()) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    /*** Returns the database name to pass to SQLiteOpenHelper for the given storage mode.*/
+    private static String databaseNameFor(StorageMode storageMode) {
+        switch (storageMode) {
+            case MEMORY:
+                // SQLiteOpenHelper creates an in-memory database when there is no name
+                return null;
+            case TEMP_FILE:
+            case TEMP_WAL_FILE:
+                return "shelter-" + UUID.randomUUID() + ".db";
+            default:
+                return DATABASE_NAME;
+        }
+    }
+
+    /*** Returns where this helper keeps its database.*/
+    public StorageMode getStorageMode() {
+        return mStorageMode;
+    }
+
+    /**
+     * Called when the database connection is being configured, before the tables are created or
+     * upgraded.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Tags and field labels go away with their channel
+        db.setForeignKeyConstraintsEnabled(true);
+
+        if (mStorageMode == StorageMode.TEMP_FILE) {
+            // Nothing in a temporary database needs to survive a crash, so skip the journal
+            DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode=OFF", null);
+            db.execSQL("PRAGMA synchronous=OFF");
+        }
     }
 
     /**
@@ -37,15 +190,485 @@ public class ChannelDbHelper extends SQLiteOpenHelper {
         String SQL_CREATE_CHANNELS_TABLE =  "CREATE TABLE " + ChannelEntry.TABLE_NAME + " ("
                 + ChannelEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + ChannelEntry.COLUMN_CHANNEL_NAME + " TEXT NOT NULL, "
-                + ChannelEntry.COLUMN_CHANNEL_ID + " INTEGER NOT NULL DEFAULT 0);";
+                + ChannelEntry.COLUMN_CHANNEL_ID + " INTEGER NOT NULL DEFAULT 0, "
+                + ChannelEntry.COLUMN_DESCRIPTION + " TEXT, "
+                + ChannelEntry.COLUMN_LATITUDE + " REAL, "
+                + ChannelEntry.COLUMN_LONGITUDE + " REAL, "
+                + ChannelEntry.COLUMN_LAST_ENTRY_AT + " INTEGER);";
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_CHANNELS_TABLE);
+        createChannelIdIndex(db);
+        createChangeLog(db);
+        ChannelWriteLog.createTable(db);
+        ChannelWriteLog.createFailedTable(db);
+        createMetadataTables(db);
+        createSpatialIndex(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Apply each schema change in turn, so that any older version can be brought up to date
+        if (oldVersion < 2) {
+            createChannelIdIndex(db);
+        }
+        if (oldVersion < 3) {
+            createChangeLog(db);
+
+            // Log the channels that already exist, so that "since=0" returns all of them
+            db.execSQL("INSERT INTO " + ChannelChangeEntry.TABLE_NAME + " ("
+                    + ChannelChangeEntry._ID + ", " + ChannelChangeEntry.COLUMN_OP + ") SELECT "
+                    + ChannelEntry._ID + ", '" + ChannelChangeEntry.OP_INSERT + "' FROM "
+                    + ChannelEntry.TABLE_NAME + ";");
+        }
+        if (oldVersion < 4) {
+            ChannelWriteLog.createTable(db);
+        }
+        if (oldVersion < 5) {
+            // New columns start out null for the existing channels
+            db.execSQL("ALTER TABLE " + ChannelEntry.TABLE_NAME + " ADD COLUMN "
+                    + ChannelEntry.COLUMN_DESCRIPTION + " TEXT;");
+            db.execSQL("ALTER TABLE " + ChannelEntry.TABLE_NAME + " ADD COLUMN "
+                    + ChannelEntry.COLUMN_LATITUDE + " REAL;");
+            db.execSQL("ALTER TABLE " + ChannelEntry.TABLE_NAME + " ADD COLUMN "
+                    + ChannelEntry.COLUMN_LONGITUDE + " REAL;");
+            db.execSQL("ALTER TABLE " + ChannelEntry.TABLE_NAME + " ADD COLUMN "
+                    + ChannelEntry.COLUMN_LAST_ENTRY_AT + " INTEGER;");
+            createMetadataTables(db);
+        }
+        if (oldVersion < 6) {
+            createSpatialIndex(db);
+        }
+        if (oldVersion < 7) {
+            // The delete trigger now also expires old delete entries. Change logs created by the
+            // step for version 3 above already have their horizon.
+            if (oldVersion >= 3) {
+                createChangeHorizon(db);
+            }
+            db.execSQL("DROP TRIGGER IF EXISTS " + ChannelChangeEntry.TABLE_NAME + "_"
+                    + ChannelChangeEntry.OP_DELETE + ";");
+            db.execSQL(createChangeTrigger("DELETE", "OLD", ChannelChangeEntry.OP_DELETE));
+        }
+        if (oldVersion < 8) {
+            ChannelWriteLog.createFailedTable(db);
+        }
+    }
+
+    /**
+     * Creates the index used by selections on {@link ChannelEntry#COLUMN_CHANNEL_ID}, so that
+     * looking a channel up by its ThingSpeak id does not scan the whole table.
+     */
+    private static void createChannelIdIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + ChannelEntry.INDEX_CHANNEL_ID + " ON "
+                + ChannelEntry.TABLE_NAME + " (" + ChannelEntry.COLUMN_CHANNEL_ID + ");");
+    }
+
+    /**
+     * Creates the tag and field label tables and the covering index of the catalog.
+     * <p>
+     * Tags are normalised into their own table and linked to channels, and both link tables are
+     * WITHOUT ROWID tables keyed by channel, so all of a channel's tags or fields sit next to each
+     * other in one B-tree. The catalog index holds every channel column the catalog returns, in
+     * name order, so listing the catalog never reads the table rows.
+     */
+    private static void createMetadataTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TagEntry.TABLE_NAME + " ("
+                + TagEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + TagEntry.COLUMN_TAG_NAME + " TEXT NOT NULL UNIQUE);");
+
+        db.execSQL("CREATE TABLE " + ChannelTagEntry.TABLE_NAME + " ("
+                + ChannelTagEntry.COLUMN_CHANNEL_ROW_ID + " INTEGER NOT NULL REFERENCES "
+                + ChannelEntry.TABLE_NAME + " (" + ChannelEntry._ID + ") ON DELETE CASCADE, "
+                + ChannelTagEntry.COLUMN_TAG_ID + " INTEGER NOT NULL REFERENCES "
+                + TagEntry.TABLE_NAME + " (" + TagEntry._ID + ") ON DELETE CASCADE, "
+                + "PRIMARY KEY (" + ChannelTagEntry.COLUMN_CHANNEL_ROW_ID + ", "
+                + ChannelTagEntry.COLUMN_TAG_ID + ")) WITHOUT ROWID;");
+        // Finds the channels with a tag, and lets deleting a tag cascade without a scan
+        db.execSQL("CREATE INDEX " + ChannelTagEntry.INDEX_TAG_ID + " ON "
+                + ChannelTagEntry.TABLE_NAME + " (" + ChannelTagEntry.COLUMN_TAG_ID + ", "
+                + ChannelTagEntry.COLUMN_CHANNEL_ROW_ID + ");");
+
+        db.execSQL("CREATE TABLE " + ChannelFieldEntry.TABLE_NAME + " ("
+                + ChannelFieldEntry.COLUMN_CHANNEL_ROW_ID + " INTEGER NOT NULL REFERENCES "
+                + ChannelEntry.TABLE_NAME + " (" + ChannelEntry._ID + ") ON DELETE CASCADE, "
+                + ChannelFieldEntry.COLUMN_FIELD_NUMBER + " INTEGER NOT NULL CHECK ("
+                + ChannelFieldEntry.COLUMN_FIELD_NUMBER + " BETWEEN 1 AND "
+                + ChannelFieldEntry.MAX_FIELD_NUMBER + "), "
+                + ChannelFieldEntry.COLUMN_FIELD_LABEL + " TEXT NOT NULL, "
+                + "PRIMARY KEY (" + ChannelFieldEntry.COLUMN_CHANNEL_ROW_ID + ", "
+                + ChannelFieldEntry.COLUMN_FIELD_NUMBER + ")) WITHOUT ROWID;");
+
+        db.execSQL("CREATE INDEX " + ChannelEntry.INDEX_CATALOG + " ON " + ChannelEntry.TABLE_NAME
+                + " (" + ChannelEntry.COLUMN_CHANNEL_NAME + ", " + ChannelEntry.COLUMN_CHANNEL_ID
+                + ", " + ChannelEntry.COLUMN_DESCRIPTION + ", " + ChannelEntry.COLUMN_LATITUDE
+                + ", " + ChannelEntry.COLUMN_LONGITUDE + ", " + ChannelEntry.COLUMN_LAST_ENTRY_AT
+                + ");");
+    }
+
+    /**
+     * Creates the spatial index of channel locations: an R*Tree virtual table filled from the
+     * channels that already have a location, and triggers that keep it in step with the channels
+     * table. If SQLite has no R*Tree module, a plain index on latitude and longitude is created
+     * instead. See {@link ChannelLocationEntry}.
+     */
+    private static void createSpatialIndex(SQLiteDatabase db) {
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE " + ChannelLocationEntry.TABLE_NAME + " USING rtree("
+                    + ChannelLocationEntry.COLUMN_ID + ", "
+                    + ChannelLocationEntry.COLUMN_MIN_LATITUDE + ", "
+                    + ChannelLocationEntry.COLUMN_MAX_LATITUDE + ", "
+                    + ChannelLocationEntry.COLUMN_MIN_LONGITUDE + ", "
+                    + ChannelLocationEntry.COLUMN_MAX_LONGITUDE + ");");
+        } catch (SQLException e) {
+            Log.w(LOG_TAG, "No R*Tree module, indexing locations with a plain index", e);
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + ChannelLocationEntry.INDEX_LOCATION + " ON "
+                    + ChannelEntry.TABLE_NAME + " (" + ChannelEntry.COLUMN_LATITUDE + ", "
+                    + ChannelEntry.COLUMN_LONGITUDE + ");");
+            return;
+        }
+
+        String hasLocation = ChannelEntry.COLUMN_LATITUDE + " IS NOT NULL AND "
+                + ChannelEntry.COLUMN_LONGITUDE + " IS NOT NULL";
+        db.execSQL("INSERT INTO " + ChannelLocationEntry.TABLE_NAME + " SELECT "
+                + ChannelEntry._ID + ", " + ChannelEntry.COLUMN_LATITUDE + ", "
+                + ChannelEntry.COLUMN_LATITUDE + ", " + ChannelEntry.COLUMN_LONGITUDE + ", "
+                + ChannelEntry.COLUMN_LONGITUDE + " FROM " + ChannelEntry.TABLE_NAME
+                + " WHERE " + hasLocation + ";");
+
+        String deleteOld = "DELETE FROM " + ChannelLocationEntry.TABLE_NAME + " WHERE "
+                + ChannelLocationEntry.COLUMN_ID + " = OLD." + ChannelEntry._ID + "; ";
+        String insertNew = "INSERT INTO " + ChannelLocationEntry.TABLE_NAME + " SELECT NEW."
+                + ChannelEntry._ID + ", NEW." + ChannelEntry.COLUMN_LATITUDE + ", NEW."
+                + ChannelEntry.COLUMN_LATITUDE + ", NEW." + ChannelEntry.COLUMN_LONGITUDE + ", NEW."
+                + ChannelEntry.COLUMN_LONGITUDE + " WHERE NEW." + ChannelEntry.COLUMN_LATITUDE
+                + " IS NOT NULL AND NEW." + ChannelEntry.COLUMN_LONGITUDE + " IS NOT NULL; ";
+        String trigger = "CREATE TRIGGER " + ChannelLocationEntry.TABLE_NAME + "_";
+        db.execSQL(trigger + "insert AFTER INSERT ON " + ChannelEntry.TABLE_NAME
+                + " BEGIN " + insertNew + "END;");
+        // Only writes that touch the location move the entry
+        db.execSQL(trigger + "update AFTER UPDATE OF " + ChannelEntry._ID + ", "
+                + ChannelEntry.COLUMN_LATITUDE + ", " + ChannelEntry.COLUMN_LONGITUDE + " ON "
+                + ChannelEntry.TABLE_NAME + " BEGIN " + deleteOld + insertNew + "END;");
+        db.execSQL(trigger + "delete AFTER DELETE ON " + ChannelEntry.TABLE_NAME
+                + " BEGIN " + deleteOld + "END;");
+    }
+
+    /**
+     * Returns true if the database has the R*Tree spatial index, false if it uses the plain
+     * location index instead.
+     */
+    static boolean hasSpatialIndex(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE name = ?",
+                new String[] { ChannelLocationEntry.TABLE_NAME }) != 0;
+    }
+
+    /**
+     * Creates the change log table and the triggers that fill it. Every write to the channels
+     * table replaces the channel's previous log entry with a new one at the next version, so the
+     * log compacts itself and never holds more than one entry per channel. The entries of
+     * deleted channels expire after {@link #DELETE_RETENTION_VERSIONS}.
+     */
+    private static void createChangeLog(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ChannelChangeEntry.TABLE_NAME + " ("
+                + ChannelChangeEntry.COLUMN_VERSION + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ChannelChangeEntry._ID + " INTEGER NOT NULL UNIQUE, "
+                + ChannelChangeEntry.COLUMN_OP + " TEXT NOT NULL);");
+        createChangeHorizon(db);
+
+        db.execSQL(createChangeTrigger("INSERT", "NEW", ChannelChangeEntry.OP_INSERT));
+        db.execSQL(createChangeTrigger("UPDATE", "NEW", ChannelChangeEntry.OP_UPDATE));
+        db.execSQL(createChangeTrigger("DELETE", "OLD", ChannelChangeEntry.OP_DELETE));
+    }
+
+    /**
+     * Creates the table holding the change log's horizon, starting at 0, and the partial index
+     * that lets the delete trigger find expired delete entries without reading the others.
+     */
+    private static void createChangeHorizon(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ChannelChangeEntry.HORIZON_TABLE_NAME + " ("
+                + ChannelChangeEntry.COLUMN_HORIZON + " INTEGER NOT NULL);");
+        db.execSQL("INSERT INTO " + ChannelChangeEntry.HORIZON_TABLE_NAME + " ("
+                + ChannelChangeEntry.COLUMN_HORIZON + ") VALUES (0);");
+        db.execSQL("CREATE INDEX " + ChannelChangeEntry.INDEX_DELETES + " ON "
+                + ChannelChangeEntry.TABLE_NAME + " (" + ChannelChangeEntry.COLUMN_VERSION + ") WHERE "
+                + ChannelChangeEntry.COLUMN_OP + " = '" + ChannelChangeEntry.OP_DELETE + "';");
+    }
+
+    /**
+     * Returns the SQL for a trigger that logs the given operation on the channels table. The
+     * delete trigger also moves the horizon up to {@link #DELETE_RETENTION_VERSIONS} behind the
+     * newest version and drops the delete entries at or below it.
+     *
+     * @param event INSERT, UPDATE or DELETE
+     * @param row   NEW or OLD, whichever row holds the channel's _ID for that event
+     * @param op    value for the {@link ChannelChangeEntry#COLUMN_OP} column
+     */
+    private static String createChangeTrigger(String event, String row, String op) {
+        String expire = "";
+        if (ChannelChangeEntry.OP_DELETE.equals(op)) {
+            // Both statements only touch the horizon row and the expired deletes, through the
+            // primary key and the partial index
+            expire = "UPDATE " + ChannelChangeEntry.HORIZON_TABLE_NAME + " SET "
+                    + ChannelChangeEntry.COLUMN_HORIZON + " = MAX(" + ChannelChangeEntry.COLUMN_HORIZON
+                    + ", (SELECT MAX(" + ChannelChangeEntry.COLUMN_VERSION + ") FROM "
+                    + ChannelChangeEntry.TABLE_NAME + ") - " + DELETE_RETENTION_VERSIONS + "); "
+                    + "DELETE FROM " + ChannelChangeEntry.TABLE_NAME + " WHERE "
+                    + ChannelChangeEntry.COLUMN_OP + " = '" + ChannelChangeEntry.OP_DELETE + "' AND "
+                    + ChannelChangeEntry.COLUMN_VERSION + " <= (SELECT "
+                    + ChannelChangeEntry.COLUMN_HORIZON + " FROM "
+                    + ChannelChangeEntry.HORIZON_TABLE_NAME + "); ";
+        }
+        return "CREATE TRIGGER " + ChannelChangeEntry.TABLE_NAME + "_" + op + " AFTER " + event
+                + " ON " + ChannelEntry.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + ChannelChangeEntry.TABLE_NAME + " WHERE "
+                + ChannelChangeEntry._ID + " = " + row + "." + ChannelEntry._ID + "; "
+                + "INSERT INTO " + ChannelChangeEntry.TABLE_NAME + " (" + ChannelChangeEntry._ID
+                + ", " + ChannelChangeEntry.COLUMN_OP + ") VALUES (" + row + "." + ChannelEntry._ID
+                + ", '" + op + "'); " + expire + "END;";
+    }
+
+    /*** Returns the horizon of the change log, see {@link ChannelChangeEntry#COLUMN_HORIZON}.*/
+    static long getChangeHorizon(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT " + ChannelChangeEntry.COLUMN_HORIZON
+                + " FROM " + ChannelChangeEntry.HORIZON_TABLE_NAME, null);
+    }
+
+    /**
+     * Inserts the given number of generated channels in a single transaction, for test fixtures
+     * and benchmarks. Channel i is named "Channel i" and has channel id i.
+     */
+    public void populate(int rowCount) {
+        SQLiteDatabase database = getWritableDatabase();
+        SQLiteStatement insert = database.compileStatement("INSERT INTO " + ChannelEntry.TABLE_NAME
+                + " (" + ChannelEntry.COLUMN_CHANNEL_NAME + ", " + ChannelEntry.COLUMN_CHANNEL_ID
+                + ") VALUES (?, ?)");
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < rowCount; i++) {
+                insert.bindString(1, "Channel " + i);
+                insert.bindLong(2, i);
+                insert.executeInsert();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            insert.close();
+        }
+    }
+
+    /**
+     * Closes the database. A temporary database is deleted as well.
+     */
+    @Override
+    public synchronized void close() {
+        super.close();
+        if (mStorageMode.isTemporary()) {
+            mContext.deleteDatabase(getDatabaseName());
+        }
+    }
+
+    /**
+     * Writes a consistent copy of the database file to the given destination on a background
+     * thread. See {@link #snapshot(File)}.
+     */
+    public void snapshotInBackground(final File destination, final SnapshotCallback callback) {
+        sBackupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int pagesWritten = snapshot(destination);
+                    callback.onSnapshotComplete(pagesWritten);
+                } catch (IOException | SQLiteException | IllegalStateException e) {
+                    Log.e(LOG_TAG, "Failed to snapshot database to " + destination, e);
+                    callback.onSnapshotFailed(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Copies the database file to the given destination, page by page, and returns the number of
+     * pages that were actually written. If the destination already holds an older snapshot, only
+     * the pages that changed since then are rewritten, so repeated snapshots are incremental.
+     * <p>
+     * The write lock is only held for the moment it takes to checkpoint the write-ahead log and
+     * switch off automatic checkpoints. While the copy runs, new writes keep landing in the WAL
+     * file, so the main database file (and therefore the copy) stays at the checkpointed state.
+     * If readers keep the checkpoint from completing, it is retried a few times before the
+     * snapshot fails. Must not be called on the main thread or inside a transaction.
+     *
+     * @param destination file to write the snapshot to; it should only be used for snapshots
+     * @return number of pages written to the destination
+     * @throws IOException if the copy fails or the WAL could not be checkpointed
+     */
+    public int snapshot(File destination) throws IOException {
+        if (mStorageMode != StorageMode.FILE) {
+            throw new IllegalStateException("Snapshots need a FILE database, not " + mStorageMode);
+        }
+        synchronized (mBackupLock) {
+            return snapshotLocked(destination);
+        }
+    }
+
+    private int snapshotLocked(File destination) throws IOException {
+        SQLiteDatabase database = getWritableDatabase();
+        File databaseFile = new File(database.getPath());
+        int pageSize = (int) DatabaseUtils.longForQuery(database, "PRAGMA page_size", null);
+
+        // Fold the WAL into the main file and stop SQLite from doing it again during the copy.
+        // Running these inside a transaction pins them to the primary (writer) connection.
+        long autoCheckpoint;
+        database.beginTransactionNonExclusive();
+        try {
+            autoCheckpoint = DatabaseUtils.longForQuery(database, "PRAGMA wal_autocheckpoint", null);
+            DatabaseUtils.longForQuery(database, "PRAGMA wal_autocheckpoint=0", null);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        RandomAccessFile source = null;
+        RandomAccessFile target = null;
+        int pagesWritten = 0;
+        try {
+            checkpoint(database);
+            source = new RandomAccessFile(databaseFile, "r");
+            target = new RandomAccessFile(destination, "rw");
+
+            long length = source.length();
+            byte[] sourcePage = new byte[pageSize];
+            byte[] targetPage = new byte[pageSize];
+            for (long offset = 0; offset < length; offset += pageSize) {
+                source.seek(offset);
+                source.readFully(sourcePage);
+
+                // Skip pages that are already identical in the previous snapshot
+                if (offset + pageSize <= target.length()) {
+                    target.seek(offset);
+                    target.readFully(targetPage);
+                    if (Arrays.equals(sourcePage, targetPage)) {
+                        continue;
+                    }
+                }
+                target.seek(offset);
+                target.write(sourcePage);
+                pagesWritten++;
+            }
+            target.setLength(length);
+            target.getFD().sync();
+        } finally {
+            if (source != null) {
+                source.close();
+            }
+            if (target != null) {
+                target.close();
+            }
+
+            // Let SQLite checkpoint the writes that piled up in the WAL during the copy
+            database.beginTransactionNonExclusive();
+            try {
+                DatabaseUtils.longForQuery(database,
+                        "PRAGMA wal_autocheckpoint=" + autoCheckpoint, null);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
+        return pagesWritten;
+    }
+
+    /**
+     * Runs a FULL checkpoint until it reports that it was not blocked, so that every frame of the
+     * WAL is in the main database file. Throws if it is still blocked after a few attempts, or if
+     * the calling thread has a transaction open.
+     */
+    private static void checkpoint(SQLiteDatabase database) throws IOException {
+        // Unlike the pragmas above, this one cannot be pinned to the primary connection with a
+        // transaction: SQLite refuses to checkpoint from a connection that is inside one. It does
+        // not need to be either. Whichever connection of the pool runs it, the checkpoint copies
+        // the whole WAL into the main file and reports busy if any other connection is in the
+        // way. The statement writes, so the pool hands it the primary connection anyway.
+        if (database.inTransaction()) {
+            throw new IllegalStateException("Cannot checkpoint the WAL inside a transaction");
+        }
+        for (int attempt = 1; ; attempt++) {
+            // Each row is (busy, frames in the WAL, frames checkpointed)
+            Cursor cursor = database.rawQuery("PRAGMA wal_checkpoint(FULL)", null);
+            long busy;
+            try {
+                busy = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+            } finally {
+                cursor.close();
+            }
+            if (busy == 0) {
+                return;
+            }
+            if (attempt == CHECKPOINT_ATTEMPTS) {
+                throw new IOException("WAL checkpoint still busy after " + attempt + " attempts");
+            }
+            try {
+                Thread.sleep(CHECKPOINT_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to checkpoint the WAL");
+            }
+        }
+    }
+
+    /**
+     * Replaces the database with a snapshot previously written by {@link #snapshot(File)}.
+     * The snapshot is first copied next to the database file and then renamed over it, so the
+     * database is never left half-restored. The helper is closed and reopened around the swap;
+     * cursors opened before the restore must not be used afterwards. A snapshot that is running
+     * finishes before the restore starts, and the other way round.
+     *
+     * @param source snapshot file to restore from
+     */
+    public void restore(File source) throws IOException {
+        if (mStorageMode != StorageMode.FILE) {
+            throw new IllegalStateException("Only a FILE database can be restored, not " + mStorageMode);
+        }
+        if (!source.isFile()) {
+            throw new IllegalArgumentException("No snapshot to restore at " + source);
+        }
+        synchronized (mBackupLock) {
+            restoreLocked(source);
+        }
+    }
+
+    private void restoreLocked(File source) throws IOException {
+        File databaseFile = mContext.getDatabasePath(getDatabaseName());
+        File restoreFile = new File(databaseFile.getPath() + "-restore");
+
+        // Stage a full copy on the same file system so that the final rename is atomic
+        FileInputStream in = new FileInputStream(source);
+        FileOutputStream out = new FileOutputStream(restoreFile);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.getFD().sync();
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        synchronized (this) {
+            close();
+
+            // The WAL and shared-memory files belong to the old database, drop them before the swap
+            new File(databaseFile.getPath() + "-wal").delete();
+            new File(databaseFile.getPath() + "-shm").delete();
+            if (!restoreFile.renameTo(databaseFile)) {
+                restoreFile.delete();
+                throw new IOException("Failed to move snapshot into place at " + databaseFile);
+            }
 
+            // Reopen straight away so that an older snapshot is upgraded before anyone reads it
+            getWritableDatabase();
+        }
     }
 
 }
@@ -0,0 +1,235 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelChangeEntry;
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Counting Bloom filter over {@link ChannelEntry#COLUMN_CHANNEL_ID}, used by imports to skip the
+ * duplicate lookup for channel ids that are definitely not in the table yet.
+ * <p>
+ * {@link #mightContain(long)} never returns false for an id that is in the table, as long as
+ * every write to the table adds ids before it commits and removes them only after. Each slot is a
+ * byte counter, so ids can be removed again; a counter that reaches 255 stays there for good.
+ * <p>
+ * The filter is saved together with the change log version it matches. When it is loaded
+ * against a database at another version, for example after a crash between a write and the next
+ * save, it is rebuilt from the table instead.
+ */
+public class ChannelIdBloomFilter {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = ChannelIdBloomFilter.class.getSimpleName();
+
+    /** False positive rate the filter is sized for */
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    /** Smallest number of ids a filter is sized for */
+    private static final int MIN_CAPACITY = 1024;
+
+    private static final int MAGIC = 0x43484246;
+
+    private static final int FORMAT_VERSION = 1;
+
+    /** One counter per slot */
+    private final byte[] mCounters;
+
+    /** Number of slots set for each id */
+    private final int mHashCount;
+
+    /** Number of ids the filter was sized for */
+    private final int mCapacity;
+
+    /** Number of lookups answered, and of those that found every slot set */
+    private long mLookups;
+    private long mPositives;
+
+    /**
+     * Constructs an empty filter sized for the given number of ids at a 1% false positive rate.
+     */
+    public ChannelIdBloomFilter(int capacity) {
+        mCapacity = Math.max(MIN_CAPACITY, capacity);
+        double ln2 = Math.log(2);
+        int size = (int) Math.ceil(-mCapacity * Math.log(FALSE_POSITIVE_RATE) / (ln2 * ln2));
+        mCounters = new byte[size];
+        mHashCount = Math.max(1, (int) Math.round((double) size / mCapacity * ln2));
+    }
+
+    private ChannelIdBloomFilter(byte[] counters, int hashCount, int capacity) {
+        mCounters = counters;
+        mHashCount = hashCount;
+        mCapacity = capacity;
+    }
+
+    /*** Returns the number of ids the filter was sized for.*/
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /*** Adds a channel id. Must be called before the row holding it is committed.*/
+    public synchronized void add(long channelId) {
+        long hash = mix(channelId);
+        for (int i = 0; i < mHashCount; i++) {
+            int slot = slot(hash, i);
+            if (mCounters[slot] != (byte) 0xff) {
+                mCounters[slot]++;
+            }
+        }
+    }
+
+    /*** Removes a channel id added before. Must be called after the row is gone for good.*/
+    public synchronized void remove(long channelId) {
+        long hash = mix(channelId);
+        for (int i = 0; i < mHashCount; i++) {
+            int slot = slot(hash, i);
+            // Saturated counters have lost count, so they are never decremented
+            if (mCounters[slot] != 0 && mCounters[slot] != (byte) 0xff) {
+                mCounters[slot]--;
+            }
+        }
+    }
+
+    /**
+     * Returns false if the channel id is definitely not in the table, true if it might be.
+     */
+    public synchronized boolean mightContain(long channelId) {
+        mLookups++;
+        long hash = mix(channelId);
+        for (int i = 0; i < mHashCount; i++) {
+            if (mCounters[slot(hash, i)] == 0) {
+                return false;
+            }
+        }
+        mPositives++;
+        return true;
+    }
+
+    /*** Returns a summary of the lookups answered so far, for logging.*/
+    public synchronized String getStats() {
+        return "lookups=" + mLookups + " positives=" + mPositives
+                + " skipped=" + (mLookups - mPositives) + " capacity=" + mCapacity;
+    }
+
+    /*** Spreads the bits of a channel id over the whole long.*/
+    static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+    /*** Returns the i-th slot for a hash, using double hashing on its two halves.*/
+    private int slot(long hash, int i) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return ((h1 + i * h2) & Integer.MAX_VALUE) % mCounters.length;
+    }
+
+    /**
+     * Returns the change log version of the database, which grows with every write to the
+     * channels table. A filter saved at one version is only valid for that version.
+     */
+    static long getChangeVersion(SQLiteDatabase database) {
+        // AUTOINCREMENT keeps the highest version ever handed out in sqlite_sequence
+        return DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence"
+                + " WHERE name = ?", new String[] { ChannelChangeEntry.TABLE_NAME });
+    }
+
+    /**
+     * Builds a filter from the channel ids in the table, sized for twice the current number of
+     * channels so that imports have room to grow.
+     */
+    public static ChannelIdBloomFilter build(SQLiteDatabase database) {
+        long rows = DatabaseUtils.queryNumEntries(database, ChannelEntry.TABLE_NAME);
+        ChannelIdBloomFilter filter =
+                new ChannelIdBloomFilter((int) Math.min(Integer.MAX_VALUE / 16, rows * 2));
+
+        // Served from the channel_id index, the table rows themselves are not read
+        Cursor cursor = database.query(ChannelEntry.TABLE_NAME,
+                new String[] { ChannelEntry.COLUMN_CHANNEL_ID }, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                filter.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return filter;
+    }
+
+    /**
+     * Loads the filter saved in the given file, or rebuilds it from the table if the file is
+     * missing, unreadable or was saved at another change log version.
+     */
+    public static ChannelIdBloomFilter loadOrBuild(SQLiteDatabase database, File file) {
+        long version = getChangeVersion(database);
+        if (file.isFile()) {
+            try {
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    if (in.readInt() == MAGIC && in.readInt() == FORMAT_VERSION
+                            && in.readLong() == version) {
+                        int hashCount = in.readInt();
+                        int capacity = in.readInt();
+                        byte[] counters = new byte[in.readInt()];
+                        in.readFully(counters);
+                        return new ChannelIdBloomFilter(counters, hashCount, capacity);
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to read " + file + ", rebuilding", e);
+            }
+        }
+        return build(database);
+    }
+
+    /**
+     * Saves the filter to the given file, tagged with the database's current change log version.
+     * The file is written next to the old one and renamed over it.
+     */
+    public void save(SQLiteDatabase database, File file) throws IOException {
+        // Read the version before copying the counters: writes add their ids before they commit,
+        // so every write up to this version is already in the copy
+        long version = getChangeVersion(database);
+        byte[] counters;
+        synchronized (this) {
+            counters = mCounters.clone();
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(version);
+            out.writeInt(mHashCount);
+            out.writeInt(mCapacity);
+            out.writeInt(counters.length);
+            out.write(counters);
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+}
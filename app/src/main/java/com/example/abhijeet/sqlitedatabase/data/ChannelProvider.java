@@ -2,27 +2,264 @@ package com.example.abhijeet.sqlitedatabase.data;
 
 /*** Created by ABHIJEET on 14-01-2017.*/
 
+import android.content.ComponentName;
 import android.content.ContentProvider;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
+import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /*** {@link ContentProvider} for <app_name> app.*/
 public class ChannelProvider extends ContentProvider {
 
     /** Tag for the log messages */
     public static final String LOG_TAG = ChannelProvider.class.getSimpleName();
 
+    /**
+     * Name of the provider's manifest meta-data that selects where the database is kept. The value
+     * is the name of a {@link ChannelDbHelper.StorageMode} in lower case, "file" by default.
+     */
+    public static final String META_DATA_STORAGE_MODE =
+            ChannelContract.CONTENT_AUTHORITY + ".STORAGE_MODE";
+
+    /**
+     * Name of the provider's manifest meta-data that sets the number of feed shards, an integer
+     * from 1 to {@link FeedShards#MAX_SHARD_COUNT}, {@link FeedShards#DEFAULT_SHARD_COUNT} by
+     * default.
+     */
+    public static final String META_DATA_FEED_SHARD_COUNT =
+            ChannelContract.CONTENT_AUTHORITY + ".FEED_SHARD_COUNT";
+
     /** URI matcher code for the content URI for the channels table */
     private static final int CHANNELS = 100;
 
     /** URI matcher code for the content URI for a single channel in the channels table */
     private static final int CHANNEL_ID = 101;
 
+    /** URI matcher code for the content URI for the number of channels */
+    private static final int CHANNELS_COUNT = 102;
+
+    /** URI matcher code for the content URI for grouped channel counts */
+    private static final int CHANNELS_STATS = 103;
+
+    /** URI matcher code for the content URI for the change log of the channels table */
+    private static final int CHANNELS_CHANGES = 104;
+
+    /** URI matcher code for the content URI for the channel catalog */
+    private static final int CHANNELS_CATALOG = 105;
+
+    /** URI matcher code for the content URI for the tags of a single channel */
+    private static final int CHANNEL_TAGS = 106;
+
+    /** URI matcher code for the content URI for the field labels of a single channel */
+    private static final int CHANNEL_FIELDS = 107;
+
+    /** URI matcher code for the content URI for the channels inside a bounding box */
+    private static final int CHANNELS_WITHIN = 108;
+
+    /** URI matcher code for the content URI for the channels nearest to a point */
+    private static final int CHANNELS_NEAREST = 109;
+
+    /** URI matcher code for the content URI for the feed entries */
+    private static final int FEEDS = 110;
+
+    /** URI matcher code for the content URI for the latest feed entry of every channel */
+    private static final int FEEDS_LATEST = 111;
+
+    /** Number of channels {@link ChannelContract.ChannelEntry#CONTENT_NEAREST_URI} returns by default */
+    private static final int DEFAULT_NEAREST_LIMIT = 10;
+
+    /** Most channels {@link ChannelContract.ChannelEntry#CONTENT_NEAREST_URI} returns */
+    private static final int MAX_NEAREST_LIMIT = 1000;
+
+    /** Half the side of the first box searched for nearest channels, in degrees of latitude */
+    private static final double NEAREST_START_RADIUS = 0.1;
+
+    /**
+     * Columns of the catalog query. The channel columns all come from the catalog index, and the
+     * tags and field labels from the primary keys of their link tables, so the channels table rows
+     * are never read.
+     */
+    static final String[] CATALOG_PROJECTION = {
+            ChannelContract.ChannelEntry._ID,
+            ChannelContract.ChannelEntry.COLUMN_CHANNEL_NAME,
+            ChannelContract.ChannelEntry.COLUMN_CHANNEL_ID,
+            ChannelContract.ChannelEntry.COLUMN_DESCRIPTION,
+            ChannelContract.ChannelEntry.COLUMN_LATITUDE,
+            ChannelContract.ChannelEntry.COLUMN_LONGITUDE,
+            ChannelContract.ChannelEntry.COLUMN_LAST_ENTRY_AT,
+            "(SELECT group_concat(t." + ChannelContract.TagEntry.COLUMN_TAG_NAME + ", ',') FROM "
+                    + ChannelContract.ChannelTagEntry.TABLE_NAME + " ct JOIN "
+                    + ChannelContract.TagEntry.TABLE_NAME + " t ON t." + ChannelContract.TagEntry._ID
+                    + " = ct." + ChannelContract.ChannelTagEntry.COLUMN_TAG_ID + " WHERE ct."
+                    + ChannelContract.ChannelTagEntry.COLUMN_CHANNEL_ROW_ID + " = "
+                    + ChannelContract.ChannelEntry.TABLE_NAME + "." + ChannelContract.ChannelEntry._ID
+                    + ") AS " + ChannelContract.ChannelEntry.COLUMN_TAGS,
+            "(SELECT group_concat(f." + ChannelContract.ChannelFieldEntry.COLUMN_FIELD_LABEL
+                    + ", ',') FROM " + ChannelContract.ChannelFieldEntry.TABLE_NAME + " f WHERE f."
+                    + ChannelContract.ChannelFieldEntry.COLUMN_CHANNEL_ROW_ID + " = "
+                    + ChannelContract.ChannelEntry.TABLE_NAME + "." + ChannelContract.ChannelEntry._ID
+                    + ") AS " + ChannelContract.ChannelEntry.COLUMN_FIELD_LABELS };
+
+    /*** Query for the tags of one channel, by name.*/
+    static final String SQL_QUERY_CHANNEL_TAGS = "SELECT "
+            + "t." + ChannelContract.TagEntry._ID + " AS " + ChannelContract.TagEntry._ID + ", "
+            + "t." + ChannelContract.TagEntry.COLUMN_TAG_NAME + " AS "
+            + ChannelContract.TagEntry.COLUMN_TAG_NAME
+            + " FROM " + ChannelContract.ChannelTagEntry.TABLE_NAME + " ct"
+            + " JOIN " + ChannelContract.TagEntry.TABLE_NAME + " t"
+            + " ON t." + ChannelContract.TagEntry._ID + " = ct." + ChannelContract.ChannelTagEntry.COLUMN_TAG_ID
+            + " WHERE ct." + ChannelContract.ChannelTagEntry.COLUMN_CHANNEL_ROW_ID + " = ?"
+            + " ORDER BY t." + ChannelContract.TagEntry.COLUMN_TAG_NAME;
+
+    /*** Columns of the field labels of a channel, with the field number doubling as _id.*/
+    static final String[] FIELDS_PROJECTION = {
+            ChannelContract.ChannelFieldEntry.COLUMN_FIELD_NUMBER + " AS " + BaseColumns._ID,
+            ChannelContract.ChannelFieldEntry.COLUMN_FIELD_NUMBER,
+            ChannelContract.ChannelFieldEntry.COLUMN_FIELD_LABEL };
+
+    /**
+     * Query for the channels that changed after a given version. The change log is joined with
+     * the channels table so consumers get the new values without a second query.
+     */
+    static final String SQL_QUERY_CHANGES = "SELECT "
+            + "c." + ChannelContract.ChannelChangeEntry.COLUMN_VERSION + " AS "
+            + ChannelContract.ChannelChangeEntry.COLUMN_VERSION + ", "
+            + "c." + ChannelContract.ChannelChangeEntry._ID + " AS "
+            + ChannelContract.ChannelChangeEntry._ID + ", "
+            + "c." + ChannelContract.ChannelChangeEntry.COLUMN_OP + " AS "
+            + ChannelContract.ChannelChangeEntry.COLUMN_OP + ", "
+            + "ch." + ChannelContract.ChannelEntry.COLUMN_CHANNEL_NAME + " AS "
+            + ChannelContract.ChannelEntry.COLUMN_CHANNEL_NAME + ", "
+            + "ch." + ChannelContract.ChannelEntry.COLUMN_CHANNEL_ID + " AS "
+            + ChannelContract.ChannelEntry.COLUMN_CHANNEL_ID
+            + " FROM " + ChannelContract.ChannelChangeEntry.TABLE_NAME + " c"
+            + " LEFT JOIN " + ChannelContract.ChannelEntry.TABLE_NAME + " ch"
+            + " ON ch." + ChannelContract.ChannelEntry._ID + " = c." + ChannelContract.ChannelChangeEntry._ID
+            + " WHERE c." + ChannelContract.ChannelChangeEntry.COLUMN_VERSION + " > ?"
+            + " ORDER BY c." + ChannelContract.ChannelChangeEntry.COLUMN_VERSION;
+
+    /** Name of the file in the app's files directory that the channel id filter is saved to */
+    private static final String CHANNEL_ID_FILTER_FILE_NAME = "channel_id_filter.bin";
+
+    /** How long after a write the channel id filter is saved, so a burst of writes saves it once */
+    private static final long CHANNEL_ID_FILTER_SAVE_DELAY_MILLIS = 2000;
+
+    /** Name of the file in the app's files directory holding the write-behind log */
+    private static final String WRITE_LOG_FILE_NAME = "channel_edits.log";
+
+    /** How long logged edits are collected before they are applied in one transaction */
+    private static final long WRITE_LOG_APPLY_DELAY_MILLIS = 500;
+
+    /** Most logged edits applied in one transaction */
+    private static final int WRITE_LOG_BATCH_SIZE = 256;
+
+    /** Runs the provider's background work one task at a time, such as saving the channel id filter */
+    private static final ScheduledExecutorService sBackgroundExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Applies the write log, on a thread of its own so that neither the callers of the provider
+     * nor its other background work wait on it
+     */
+    private static final ScheduledExecutorService sWriteLogExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Returns the query for the channels inside a bounding box, through the R*Tree or through the
+     * plain location index. The arguments are the minimum and maximum latitude and the minimum and
+     * maximum longitude. The nearest variant also takes the point's latitude and longitude, the
+     * square of the cosine of its latitude, and the number of channels, and sorts by distance.
+     */
+    static String spatialQuery(boolean rtree, boolean nearest) {
+        String latitude = "c." + ChannelContract.ChannelEntry.COLUMN_LATITUDE;
+        String longitude = "c." + ChannelContract.ChannelEntry.COLUMN_LONGITUDE;
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < ChannelContract.ChannelEntry.LOCATION_COLUMNS.length; i++) {
+            String column = ChannelContract.ChannelEntry.LOCATION_COLUMNS[i];
+            sql.append(i == 0 ? "c." : ", c.").append(column).append(" AS ").append(column);
+        }
+        // Arguments are bound as strings, so they are cast to compare as numbers
+        if (rtree) {
+            String r = "r.";
+            sql.append(" FROM ").append(ChannelContract.ChannelLocationEntry.TABLE_NAME).append(" r")
+                    .append(" JOIN ").append(ChannelContract.ChannelEntry.TABLE_NAME).append(" c")
+                    .append(" ON c.").append(ChannelContract.ChannelEntry._ID).append(" = ")
+                    .append(r).append(ChannelContract.ChannelLocationEntry.COLUMN_ID)
+                    .append(" WHERE ").append(r).append(ChannelContract.ChannelLocationEntry.COLUMN_MAX_LATITUDE)
+                    .append(" >= CAST(?1 AS REAL) AND ")
+                    .append(r).append(ChannelContract.ChannelLocationEntry.COLUMN_MIN_LATITUDE)
+                    .append(" <= CAST(?2 AS REAL) AND ")
+                    .append(r).append(ChannelContract.ChannelLocationEntry.COLUMN_MAX_LONGITUDE)
+                    .append(" >= CAST(?3 AS REAL) AND ")
+                    .append(r).append(ChannelContract.ChannelLocationEntry.COLUMN_MIN_LONGITUDE)
+                    .append(" <= CAST(?4 AS REAL)")
+                    // The R*Tree keeps 32-bit bounds rounded outwards, the exact check follows
+                    .append(" AND ");
+        } else {
+            sql.append(" FROM ").append(ChannelContract.ChannelEntry.TABLE_NAME).append(" c WHERE ");
+        }
+        sql.append(latitude).append(" BETWEEN CAST(?1 AS REAL) AND CAST(?2 AS REAL) AND ")
+                .append(longitude).append(" BETWEEN CAST(?3 AS REAL) AND CAST(?4 AS REAL)");
+        if (nearest) {
+            sql.append(" ORDER BY (").append(latitude).append(" - CAST(?5 AS REAL)) * (")
+                    .append(latitude).append(" - CAST(?5 AS REAL)) + (")
+                    .append(longitude).append(" - CAST(?6 AS REAL)) * (")
+                    .append(longitude).append(" - CAST(?6 AS REAL)) * CAST(?7 AS REAL)")
+                    .append(" LIMIT CAST(?8 AS INTEGER)");
+        }
+        return sql.toString();
+    }
+
+    /** Most channels returned by one {@link ChannelContract.ChannelEntry#METHOD_READ_CHANNELS} call */
+    private static final int MAX_READ_PAGE_ROWS = 10000;
+
+    /**
+     * Name bytes after which a page is cut short, keeping each reply well below the binder
+     * transaction limit of 1 MB
+     */
+    private static final int MAX_READ_PAGE_NAME_BYTES = 256 * 1024;
+
+    /** Query for one page of channels after a given _ID, with the names as raw UTF-8 bytes */
+    private static final String SQL_READ_CHANNEL_PAGE = "SELECT "
+            + ChannelContract.ChannelEntry._ID + ", "
+            + ChannelContract.ChannelEntry.COLUMN_CHANNEL_ID + ", "
+            + "CAST(" + ChannelContract.ChannelEntry.COLUMN_CHANNEL_NAME + " AS BLOB)"
+            + " FROM " + ChannelContract.ChannelEntry.TABLE_NAME
+            + " WHERE " + ChannelContract.ChannelEntry._ID + " > ?"
+            + " ORDER BY " + ChannelContract.ChannelEntry._ID + " LIMIT ?";
+
+    /** Columns that {@link ChannelContract.ChannelEntry#CONTENT_STATS_URI} can group by */
+    private static final String[] GROUP_BY_COLUMNS = {
+            ChannelContract.ChannelEntry.COLUMN_CHANNEL_NAME,
+            ChannelContract.ChannelEntry.COLUMN_CHANNEL_ID };
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -49,11 +286,87 @@ public class ChannelProvider extends ContentProvider {
         // For example, "content://com.example.android.pets/pets/3" matches, but
         // "content://com.example.android.pets/pets" (without a number at the end) doesn't match.
         sUriMatcher.addURI(ChannelContract.CONTENT_AUTHORITY, ChannelContract.PATH_CHANNELS + "/#", CHANNEL_ID);
+
+        // The aggregate URIs return a single small row (or one row per group) computed in SQL,
+        // so callers don't have to load every channel into a Cursor just to count them.
+        sUriMatcher.addURI(ChannelContract.CONTENT_AUTHORITY,
+                ChannelContract.PATH_CHANNELS + "/" + ChannelContract.PATH_COUNT, CHANNELS_COUNT);
+        sUriMatcher.addURI(ChannelContract.CONTENT_AUTHORITY,
+                ChannelContract.PATH_CHANNELS + "/" + ChannelContract.PATH_STATS, CHANNELS_STATS);
+
+        // The change log lets consumers apply only what changed since they last looked
+        sUriMatcher.addURI(ChannelContract.CONTENT_AUTHORITY,
+                ChannelContract.PATH_CHANNELS + "/" + ChannelContract.PATH_CHANGES, CHANNELS_CHANGES);
+
+        // The catalog and the tags and field labels of a channel are read through joins
+        sUriMatcher.addURI(ChannelContract.CONTENT_AUTHORITY,
+                ChannelContract.PATH_CHANNELS + "/" + ChannelContract.PATH_CATALOG, CHANNELS_CATALOG);
+        sUriMatcher.addURI(ChannelContract.CONTENT_AUTHORITY,
+                ChannelContract.PATH_CHANNELS + "/#/" + ChannelContract.PATH_TAGS, CHANNEL_TAGS);
+        sUriMatcher.addURI(ChannelContract.CONTENT_AUTHORITY,
+                ChannelContract.PATH_CHANNELS + "/#/" + ChannelContract.PATH_FIELDS, CHANNEL_FIELDS);
+
+        // Location lookups go through the spatial index rather than scanning every channel
+        sUriMatcher.addURI(ChannelContract.CONTENT_AUTHORITY,
+                ChannelContract.PATH_CHANNELS + "/" + ChannelContract.PATH_WITHIN, CHANNELS_WITHIN);
+        sUriMatcher.addURI(ChannelContract.CONTENT_AUTHORITY,
+                ChannelContract.PATH_CHANNELS + "/" + ChannelContract.PATH_NEAREST, CHANNELS_NEAREST);
+
+        // Feed entries live in their own sharded databases, see FeedShards
+        sUriMatcher.addURI(ChannelContract.CONTENT_AUTHORITY, ChannelContract.PATH_FEEDS, FEEDS);
+        sUriMatcher.addURI(ChannelContract.CONTENT_AUTHORITY,
+                ChannelContract.PATH_FEEDS + "/" + ChannelContract.PATH_LATEST, FEEDS_LATEST);
     }
 
     /** Database helper object */
     private ChannelDbHelper mDbHelper;
 
+    /** Writer for plain channel rows, recreated whenever the helper reopens the database */
+    private ChannelWriter mWriter;
+
+    /**
+     * Held by every write and while the channel id filter is loaded, so that the filter never
+     * misses a write that is half done. SQLite runs one write at a time anyway.
+     */
+    private final Object mWriteLock = new Object();
+
+    /**
+     * Filter over the channel ids in the table, loaded by the first import that skips existing
+     * channels and kept up to date by every write after that. Null until then.
+     */
+    private volatile ChannelIdBloomFilter mChannelIdFilter;
+
+    /** Database the channel id filter was loaded from */
+    private SQLiteDatabase mChannelIdFilterDatabase;
+
+    /** True while a save of the channel id filter is scheduled but has not started yet */
+    private final AtomicBoolean mChannelIdFilterSavePending = new AtomicBoolean();
+
+    /** Shard databases of the feed entries, opened by the first feed URI used */
+    private FeedShards mFeedShards;
+
+    /** Log of write-behind edits, null if the database is not a file or the log failed to open */
+    private volatile ChannelWriteLog mWriteLog;
+
+    /** True once opening the write log has been tried */
+    private volatile boolean mWriteLogOpened;
+
+    /** True while applying the write log is scheduled but has not started yet */
+    private final AtomicBoolean mWriteLogApplyPending = new AtomicBoolean();
+
+    /*** Constructs the provider. The database helper is created in {@link #onCreate()}.*/
+    public ChannelProvider() {
+    }
+
+    /**
+     * Constructs a provider backed by the given database helper, for tests and benchmarks that
+     * want an in-memory or temporary database. Attach it with
+     * {@link #attachInfo(android.content.Context, ProviderInfo)} before use.
+     */
+    public ChannelProvider(ChannelDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
     /*** Initialize the provider and the database helper object.*/
     @Override
     public boolean onCreate() {
@@ -61,14 +374,118 @@ public class ChannelProvider extends ContentProvider {
         // Make sure the variable is a global variable, so it can be referenced from other
         // ContentProvider methods.
 
-        mDbHelper = new ChannelDbHelper(getContext());
+        if (mDbHelper == null) {
+            mDbHelper = new ChannelDbHelper(getContext(), readStorageMode());
+        }
         return true;
     }
 
+    /*** Reads the storage mode from the provider's manifest meta-data.*/
+    private ChannelDbHelper.StorageMode readStorageMode() {
+        try {
+            ProviderInfo info = getContext().getPackageManager().getProviderInfo(
+                    new ComponentName(getContext(), ChannelProvider.class), PackageManager.GET_META_DATA);
+            Bundle metaData = info.metaData;
+            String storageMode = metaData == null ? null : metaData.getString(META_DATA_STORAGE_MODE);
+            if (storageMode != null) {
+                return ChannelDbHelper.StorageMode.valueOf(storageMode.toUpperCase(Locale.ROOT));
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(LOG_TAG, "Provider is not in the manifest, using the default storage mode", e);
+        }
+        return ChannelDbHelper.StorageMode.FILE;
+    }
+
+    /**
+     * Returns the feed shards, opening them on first use. They are kept like the channels
+     * database, and the shard count comes from the provider's manifest meta-data.
+     */
+    private synchronized FeedShards getFeedShards() {
+        if (mFeedShards == null) {
+            mFeedShards = new FeedShards(getContext(), mDbHelper.getStorageMode(), readFeedShardCount());
+        }
+        return mFeedShards;
+    }
+
+    /*** Reads the number of feed shards from the provider's manifest meta-data.*/
+    private int readFeedShardCount() {
+        try {
+            ProviderInfo info = getContext().getPackageManager().getProviderInfo(
+                    new ComponentName(getContext(), ChannelProvider.class), PackageManager.GET_META_DATA);
+            if (info.metaData != null) {
+                return info.metaData.getInt(META_DATA_FEED_SHARD_COUNT, FeedShards.DEFAULT_SHARD_COUNT);
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(LOG_TAG, "Provider is not in the manifest, using the default feed shard count", e);
+        }
+        return FeedShards.DEFAULT_SHARD_COUNT;
+    }
+
+    /**
+     * Returns true for the feed URIs. Feed entries are not in the channels database, so they
+     * skip the write log and the channels write lock.
+     */
+    private static boolean isFeedUri(Uri uri) {
+        int match = sUriMatcher.match(uri);
+        return match == FEEDS || match == FEEDS_LATEST;
+    }
+
     /*** Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.*/
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Perform the query for the given URI, like the method above. If the cancellation signal is
+     * cancelled while SQLite is still running the query, the query stops and an
+     * {@link android.os.OperationCanceledException} is thrown to the caller.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        ChannelTrace.beginSection("ChannelProvider.query");
+        try {
+            if (isFeedUri(uri)) {
+                return queryFeeds(uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+            }
+            // Logged edits are applied first, so that the caller sees them
+            drainWriteLog();
+            return queryChannels(uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        } finally {
+            ChannelTrace.endSection();
+        }
+    }
+
+    private Cursor queryFeeds(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                              String sortOrder, CancellationSignal cancellationSignal) {
+        FeedShards shards = getFeedShards();
+        Cursor cursor;
+        if (sUriMatcher.match(uri) == FEEDS_LATEST) {
+            // The projection, selection and sort order are ignored, every shard is read at once
+            cursor = shards.queryLatest(cancellationSignal);
+        } else {
+            String channelId = uri.getQueryParameter(ChannelContract.FeedEntry.QUERY_PARAMETER_CHANNEL_ID);
+            if (channelId == null) {
+                cursor = shards.queryAll(projection, selection, selectionArgs, sortOrder, cancellationSignal);
+            } else {
+                long id;
+                try {
+                    id = Long.parseLong(channelId);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid channel id " + channelId + " for " + uri);
+                }
+                cursor = shards.queryChannel(id, projection, selection, selectionArgs, sortOrder,
+                        cancellationSignal);
+            }
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), ChannelContract.FeedEntry.CONTENT_URI);
+        return cursor;
+    }
+
+    private Cursor queryChannels(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                 String sortOrder, CancellationSignal cancellationSignal) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -83,8 +500,8 @@ public class ChannelProvider extends ContentProvider {
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the pets table.
                 // TO-DO: Perform database query on pets table
-                cursor = database.query(ChannelContract.ChannelEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = database.query(false, ChannelContract.ChannelEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
                 break;
             case CHANNEL_ID:
                 // For the CHANNEL_ID code, extract out the ID from the URI.
@@ -100,8 +517,93 @@ public class ChannelProvider extends ContentProvider {
 
                 // This will perform a query on the pets table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(ChannelContract.ChannelEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = database.query(false, ChannelContract.ChannelEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
+                break;
+            case CHANNELS_COUNT:
+                // Let SQLite count the matching rows and return just the number. The projection
+                // is ignored, the cursor always has the single count column.
+                cursor = database.query(false, ChannelContract.ChannelEntry.TABLE_NAME,
+                        new String[] { "COUNT(*) AS " + ChannelContract.ChannelEntry.COLUMN_COUNT },
+                        selection, selectionArgs, null, null, null, null, cancellationSignal);
+                break;
+            case CHANNELS_STATS:
+                // Group by one of the known columns only, the name ends up in the SQL as-is
+                String groupBy = uri.getQueryParameter(ChannelContract.ChannelEntry.QUERY_PARAMETER_GROUP_BY);
+                if (!isGroupByColumn(groupBy)) {
+                    throw new IllegalArgumentException("Cannot group by " + groupBy + " for " + uri);
+                }
+                if (sortOrder == null) {
+                    sortOrder = groupBy;
+                }
+                cursor = database.query(false, ChannelContract.ChannelEntry.TABLE_NAME,
+                        new String[] { groupBy, "COUNT(*) AS " + ChannelContract.ChannelEntry.COLUMN_COUNT },
+                        selection, selectionArgs, groupBy, null, sortOrder, null, cancellationSignal);
+                break;
+            case CHANNELS_CHANGES:
+                // The projection, selection and sort order are ignored, the delta feed always
+                // has the same columns in version order
+                String since = uri.getQueryParameter(ChannelContract.ChannelEntry.QUERY_PARAMETER_SINCE);
+                long sinceVersion;
+                try {
+                    sinceVersion = since == null ? 0 : Long.parseLong(since);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid version " + since + " for " + uri);
+                }
+                cursor = database.rawQuery(SQL_QUERY_CHANGES,
+                        new String[] { String.valueOf(sinceVersion) }, cancellationSignal);
+
+                // Deletes at or below the horizon may be gone, so a caller that last synced
+                // before it cannot rely on the delta. Starting from 0 needs no deletes at all.
+                final Bundle extras = new Bundle();
+                long horizon = ChannelDbHelper.getChangeHorizon(database);
+                extras.putLong(ChannelContract.ChannelChangeEntry.EXTRA_HORIZON, horizon);
+                extras.putBoolean(ChannelContract.ChannelChangeEntry.EXTRA_RESYNC_REQUIRED,
+                        sinceVersion > 0 && sinceVersion < horizon);
+                cursor = new CursorWrapper(cursor) {
+                    @Override
+                    public Bundle getExtras() {
+                        return extras;
+                    }
+                };
+                break;
+            case CHANNELS_CATALOG:
+                // The projection is ignored, the catalog always has the same columns. Sorting by
+                // name walks the catalog index in order.
+                if (sortOrder == null) {
+                    sortOrder = ChannelContract.ChannelEntry.COLUMN_CHANNEL_NAME;
+                }
+                cursor = database.query(false, ChannelContract.ChannelEntry.TABLE_NAME,
+                        CATALOG_PROJECTION, selection, selectionArgs, null, null, sortOrder, null,
+                        cancellationSignal);
+                break;
+            case CHANNEL_TAGS:
+                // The projection, selection and sort order are ignored
+                cursor = database.rawQuery(SQL_QUERY_CHANNEL_TAGS,
+                        new String[] { uri.getPathSegments().get(1) }, cancellationSignal);
+                break;
+            case CHANNEL_FIELDS:
+                // The projection and sort order are ignored, fields come in field order
+                String fieldSelection = channelRowSelection(
+                        ChannelContract.ChannelFieldEntry.COLUMN_CHANNEL_ROW_ID, selection);
+                cursor = database.query(false, ChannelContract.ChannelFieldEntry.TABLE_NAME,
+                        FIELDS_PROJECTION, fieldSelection, channelRowSelectionArgs(uri, selectionArgs),
+                        null, null, ChannelContract.ChannelFieldEntry.COLUMN_FIELD_NUMBER, null,
+                        cancellationSignal);
+                break;
+            case CHANNELS_WITHIN:
+                // The projection, selection and sort order are ignored
+                cursor = database.rawQuery(spatialQuery(ChannelDbHelper.hasSpatialIndex(database), false),
+                        new String[] {
+                                String.valueOf(doubleParameter(uri, ChannelContract.ChannelEntry.QUERY_PARAMETER_MIN_LATITUDE)),
+                                String.valueOf(doubleParameter(uri, ChannelContract.ChannelEntry.QUERY_PARAMETER_MAX_LATITUDE)),
+                                String.valueOf(doubleParameter(uri, ChannelContract.ChannelEntry.QUERY_PARAMETER_MIN_LONGITUDE)),
+                                String.valueOf(doubleParameter(uri, ChannelContract.ChannelEntry.QUERY_PARAMETER_MAX_LONGITUDE)) },
+                        cancellationSignal);
+                break;
+            case CHANNELS_NEAREST:
+                // The projection, selection and sort order are ignored
+                cursor = queryNearest(database, uri, cancellationSignal);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -110,18 +612,541 @@ public class ChannelProvider extends ContentProvider {
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // Aggregates and the change log change whenever any channel changes, so they watch the
+        // whole table.
+        if (match == CHANNELS_COUNT || match == CHANNELS_STATS || match == CHANNELS_CHANGES
+                || match == CHANNELS_CATALOG || match == CHANNELS_WITHIN || match == CHANNELS_NEAREST) {
+            cursor.setNotificationUri(getContext().getContentResolver(),
+                    ChannelContract.ChannelEntry.CONTENT_URI);
+        } else {
+            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        }
 
         // Return the cursor
         return cursor;
     }
 
+    /*** Returns the value of a required numeric query parameter of the URI.*/
+    private static double doubleParameter(Uri uri, String name) {
+        String value = uri.getQueryParameter(name);
+        try {
+            if (value != null) {
+                return Double.parseDouble(value);
+            }
+        } catch (NumberFormatException e) {
+            // Reported below like a missing value
+        }
+        throw new IllegalArgumentException("Invalid " + name + " " + value + " for " + uri);
+    }
+
+    /**
+     * Finds the channels nearest to the point in the URI. Searches a box around the point and
+     * keeps growing it until the farthest of the channels found is no farther than the edge of
+     * the box, so that no nearer channel can be outside it.
+     */
+    private Cursor queryNearest(SQLiteDatabase database, Uri uri, CancellationSignal cancellationSignal) {
+        double latitude = doubleParameter(uri, ChannelContract.ChannelEntry.QUERY_PARAMETER_LATITUDE);
+        double longitude = doubleParameter(uri, ChannelContract.ChannelEntry.QUERY_PARAMETER_LONGITUDE);
+        String limitParameter = uri.getQueryParameter(ChannelContract.ChannelEntry.QUERY_PARAMETER_LIMIT);
+        int limit = limitParameter == null
+                ? DEFAULT_NEAREST_LIMIT : (int) doubleParameter(uri, ChannelContract.ChannelEntry.QUERY_PARAMETER_LIMIT);
+        if (limit < 1 || limit > MAX_NEAREST_LIMIT) {
+            throw new IllegalArgumentException("Invalid limit " + limit + " for " + uri);
+        }
+
+        // A degree of longitude shrinks with the cosine of the latitude
+        double longitudeScale = Math.max(1e-6, Math.cos(Math.toRadians(latitude)));
+        String sql = spatialQuery(ChannelDbHelper.hasSpatialIndex(database), true);
+        double radius = NEAREST_START_RADIUS;
+        while (true) {
+            double longitudeRadius = radius / longitudeScale;
+            Cursor cursor = database.rawQuery(sql, new String[] {
+                    String.valueOf(latitude - radius), String.valueOf(latitude + radius),
+                    String.valueOf(longitude - longitudeRadius), String.valueOf(longitude + longitudeRadius),
+                    String.valueOf(latitude), String.valueOf(longitude),
+                    String.valueOf(longitudeScale * longitudeScale), String.valueOf(limit) },
+                    cancellationSignal);
+
+            // Once the box spans the whole world, whatever it holds is the answer
+            if (radius >= 180) {
+                return cursor;
+            }
+            if (cursor.getCount() == limit && cursor.moveToLast()) {
+                double latitudeDistance = cursor.getDouble(3) - latitude;
+                double longitudeDistance = (cursor.getDouble(4) - longitude) * longitudeScale;
+                double distance = latitudeDistance * latitudeDistance + longitudeDistance * longitudeDistance;
+                if (distance <= radius * radius) {
+                    cursor.moveToPosition(-1);
+                    return cursor;
+                }
+            }
+            cursor.close();
+            radius *= 4;
+        }
+    }
+
+    /**
+     * Returns a selection that restricts the given one to a single channel, for tables keyed by
+     * the channel's row id. The row id is the first argument.
+     */
+    private static String channelRowSelection(String channelRowIdColumn, String selection) {
+        String channelSelection = channelRowIdColumn + "=?";
+        return TextUtils.isEmpty(selection)
+                ? channelSelection : channelSelection + " AND (" + selection + ")";
+    }
+
+    /*** Returns the selection arguments for {@link #channelRowSelection}, for the channel in the URI.*/
+    private static String[] channelRowSelectionArgs(Uri uri, String[] selectionArgs) {
+        String channelRowId = uri.getPathSegments().get(1);
+        if (selectionArgs == null) {
+            return new String[] { channelRowId };
+        }
+        String[] args = new String[selectionArgs.length + 1];
+        args[0] = channelRowId;
+        System.arraycopy(selectionArgs, 0, args, 1, selectionArgs.length);
+        return args;
+    }
+
+    /*** Returns true if the given column may be used in the group_by parameter of the stats URI.*/
+    private static boolean isGroupByColumn(String column) {
+        for (String groupByColumn : GROUP_BY_COLUMNS) {
+            if (groupByColumn.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*** Returns the writer for the current writable database.*/
+    private synchronized ChannelWriter getWriter() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (mWriter == null || mWriter.getDatabase() != database) {
+            if (mWriter != null) {
+                mWriter.close();
+            }
+            mWriter = new ChannelWriter(database);
+        }
+        return mWriter;
+    }
+
+    /**
+     * Returns the channel id filter for the current writable database, loading it from its file
+     * or rebuilding it from the table when needed. The caller must hold {@link #mWriteLock}.
+     */
+    private ChannelIdBloomFilter getChannelIdFilter() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long rows = DatabaseUtils.queryNumEntries(database, ChannelContract.ChannelEntry.TABLE_NAME);
+        ChannelIdBloomFilter filter = mChannelIdFilter;
+        if (filter != null && mChannelIdFilterDatabase == database && rows <= filter.getCapacity()) {
+            return filter;
+        }
+
+        ChannelTrace.beginSection("ChannelProvider.loadChannelIdFilter");
+        try {
+            // Only the first load reads the file. A filter for another database, or one that has
+            // outgrown the size it was built for, is rebuilt from the table.
+            if (filter == null && mDbHelper.getStorageMode() == ChannelDbHelper.StorageMode.FILE) {
+                filter = ChannelIdBloomFilter.loadOrBuild(database, getChannelIdFilterFile());
+                if (rows > filter.getCapacity()) {
+                    filter = ChannelIdBloomFilter.build(database);
+                }
+            } else {
+                filter = ChannelIdBloomFilter.build(database);
+            }
+        } finally {
+            ChannelTrace.endSection();
+        }
+        mChannelIdFilter = filter;
+        mChannelIdFilterDatabase = database;
+        scheduleChannelIdFilterSave();
+        return filter;
+    }
+
+    private File getChannelIdFilterFile() {
+        return new File(getContext().getFilesDir(), CHANNEL_ID_FILTER_FILE_NAME);
+    }
+
+    /*** Saves the channel id filter a little later, if it is loaded and the database is a file.*/
+    private void scheduleChannelIdFilterSave() {
+        if (mChannelIdFilter == null || mDbHelper.getStorageMode() != ChannelDbHelper.StorageMode.FILE
+                || !mChannelIdFilterSavePending.compareAndSet(false, true)) {
+            return;
+        }
+        sBackgroundExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mChannelIdFilterSavePending.set(false);
+                saveChannelIdFilter();
+            }
+        }, CHANNEL_ID_FILTER_SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void saveChannelIdFilter() {
+        ChannelIdBloomFilter filter;
+        SQLiteDatabase database;
+        synchronized (mWriteLock) {
+            filter = mChannelIdFilter;
+            database = mChannelIdFilterDatabase;
+        }
+        // Writes go on while the file is written, the filter copes with that by itself
+        if (filter == null || !database.isOpen()) {
+            return;
+        }
+        try {
+            filter.save(database, getChannelIdFilterFile());
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to save the channel id filter", e);
+        }
+    }
+
+    /**
+     * Returns the channel ids of the rows a write to the given URI and selection is about to
+     * change, so that they can be removed from the channel id filter once it is done.
+     */
+    private long[] queryChannelIds(Uri uri, String selection, String[] selectionArgs) {
+        int match = sUriMatcher.match(uri);
+        if (match == CHANNEL_ID) {
+            selection = ChannelContract.ChannelEntry._ID + "=?";
+            selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+        } else if (match != CHANNELS) {
+            return new long[0];
+        }
+
+        Cursor cursor = mDbHelper.getReadableDatabase().query(ChannelContract.ChannelEntry.TABLE_NAME,
+                new String[] { ChannelContract.ChannelEntry.COLUMN_CHANNEL_ID },
+                selection, selectionArgs, null, null, null);
+        try {
+            long[] channelIds = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                channelIds[i] = cursor.getLong(0);
+            }
+            return channelIds;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*** Removes channel ids that are no longer in the table from the filter, if it is loaded.*/
+    private void removeChannelIds(long[] channelIds) {
+        ChannelIdBloomFilter filter = mChannelIdFilter;
+        if (filter == null) {
+            return;
+        }
+        for (long channelId : channelIds) {
+            filter.remove(channelId);
+        }
+        scheduleChannelIdFilterSave();
+    }
+
+    /**
+     * Returns the write log, opening it on first use and scheduling whatever it still holds from
+     * before a restart to be applied. Returns null if write-behind edits are not available.
+     */
+    private ChannelWriteLog getWriteLog() {
+        if (mWriteLogOpened) {
+            return mWriteLog;
+        }
+        synchronized (this) {
+            if (!mWriteLogOpened) {
+                if (mDbHelper.getStorageMode() == ChannelDbHelper.StorageMode.FILE) {
+                    try {
+                        mWriteLog = new ChannelWriteLog(
+                                new File(getContext().getFilesDir(), WRITE_LOG_FILE_NAME),
+                                ChannelWriteLog.getAppliedSequence(mDbHelper.getWritableDatabase()));
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Failed to open the write log, writing edits directly", e);
+                    }
+                }
+                mWriteLogOpened = true;
+                if (mWriteLog != null && mWriteLog.hasPending()) {
+                    scheduleWriteLogApply();
+                }
+            }
+            return mWriteLog;
+        }
+    }
+
+    /*** Returns true if the URI asks for a write-behind edit.*/
+    private static boolean isWriteBehind(Uri uri) {
+        return Boolean.parseBoolean(
+                uri.getQueryParameter(ChannelContract.ChannelEntry.QUERY_PARAMETER_WRITE_BEHIND));
+    }
+
+    /**
+     * Logs the insert of a plain channel under a reserved row id and returns the new channel's
+     * URI. Returns null if the insert cannot be logged and has to be written directly.
+     */
+    private Uri logInsert(Uri uri, ContentValues values) {
+        ChannelWriteLog log = getWriteLog();
+        if (log == null || sUriMatcher.match(uri) != CHANNELS || !Channel.hasOnlyChannelColumns(values)) {
+            return null;
+        }
+        String name = values.getAsString(ChannelContract.ChannelEntry.COLUMN_CHANNEL_NAME);
+        long channelId = Channel.channelIdOf(values);
+        long id = log.reserveId(mDbHelper.getWritableDatabase());
+        if (!logEdit(ChannelWriteLog.OP_INSERT, id, name, channelId)) {
+            return null;
+        }
+        return ContentUris.withAppendedId(ChannelContract.ChannelEntry.CONTENT_URI, id);
+    }
+
+    /**
+     * Logs an update that replaces both the name and the channel id of one channel. Returns the
+     * number of channels updated, 1 or 0, or -1 if the update cannot be logged and has to be
+     * written directly.
+     */
+    private int logUpdate(Uri uri, ContentValues values) {
+        if (sUriMatcher.match(uri) != CHANNEL_ID || values.size() != 2
+                || !values.containsKey(ChannelContract.ChannelEntry.COLUMN_CHANNEL_ID)
+                || !Channel.hasOnlyChannelColumns(values)) {
+            return -1;
+        }
+        return logChannelEdit(ChannelWriteLog.OP_UPDATE, ContentUris.parseId(uri),
+                values.getAsString(ChannelContract.ChannelEntry.COLUMN_CHANNEL_NAME),
+                Channel.channelIdOf(values));
+    }
+
+    /**
+     * Logs an update or delete of one channel, if the channel exists once the edits still in the
+     * log are counted. Returns 1 if the edit was logged, 0 if there is no such channel, or -1 if
+     * the edit cannot be logged and has to be written directly.
+     */
+    private int logChannelEdit(byte op, long id, String name, long channelId) {
+        ChannelWriteLog log = getWriteLog();
+        if (log == null) {
+            return -1;
+        }
+        // The log's own lock is held from the check to the append, so that two edits of the
+        // same channel see each other
+        synchronized (log) {
+            if (!channelExists(log, id)) {
+                return 0;
+            }
+            return logEdit(op, id, name, channelId) ? 1 : -1;
+        }
+    }
+
+    /*** Returns true if the channel exists, counting the edits still in the write log.*/
+    private boolean channelExists(ChannelWriteLog log, long id) {
+        // The log is checked first, as an entry only leaves it once it is in the table
+        byte op = log.getLastPendingOp(id);
+        if (op != 0) {
+            return op != ChannelWriteLog.OP_DELETE;
+        }
+        return DatabaseUtils.longForQuery(mDbHelper.getReadableDatabase(),
+                "SELECT EXISTS (SELECT 1 FROM " + ChannelContract.ChannelEntry.TABLE_NAME + " WHERE " + ChannelContract.ChannelEntry._ID
+                + " = ?)", new String[] { String.valueOf(id) }) != 0;
+    }
+
+    /**
+     * Validates an edit, appends it to the write log, schedules it to be applied and notifies
+     * listeners of the channel. Returns false if the log is not available or the append failed.
+     */
+    private boolean logEdit(byte op, long id, String name, long channelId) {
+        ChannelWriteLog log = getWriteLog();
+        if (log == null) {
+            return false;
+        }
+        if (op != ChannelWriteLog.OP_DELETE) {
+            Channel.checkName(name);
+            Channel.checkChannelId(channelId);
+        }
+
+        ChannelTrace.beginSection("ChannelProvider.logEdit");
+        try {
+            log.append(op, id, name, channelId);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to log an edit of channel " + id + ", writing it directly", e);
+            return false;
+        } finally {
+            ChannelTrace.endSection();
+        }
+        scheduleWriteLogApply();
+
+        // Listeners that query now get the edit, as queries apply the log first
+        getContext().getContentResolver().notifyChange(
+                ContentUris.withAppendedId(ChannelContract.ChannelEntry.CONTENT_URI, id), null);
+        return true;
+    }
+
+    /*** Applies the write log a little later, collecting the edits logged until then.*/
+    private void scheduleWriteLogApply() {
+        if (!mWriteLogApplyPending.compareAndSet(false, true)) {
+            return;
+        }
+        sWriteLogExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mWriteLogApplyPending.set(false);
+                synchronized (mWriteLock) {
+                    applyWriteLog();
+                }
+            }
+        }, WRITE_LOG_APPLY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits until the write log thread has applied the edits logged so far, before a read or a
+     * direct write that may depend on them. Returns at once when nothing is pending. Must not be
+     * called while holding {@link #mWriteLock}.
+     */
+    private void drainWriteLog() {
+        ChannelWriteLog log = getWriteLog();
+        if (log == null || !log.hasPending()) {
+            return;
+        }
+        Future<?> drained = sWriteLogExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mWriteLock) {
+                    applyWriteLog();
+                }
+            }
+        });
+        try {
+            drained.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while applying the write log", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to apply the write log", e.getCause());
+        }
+    }
+
+    /**
+     * Applies the logged edits to the channels table, in batches of one transaction each. The
+     * caller must hold {@link #mWriteLock}.
+     */
+    private void applyWriteLog() {
+        ChannelWriteLog log = getWriteLog();
+        if (log == null) {
+            return;
+        }
+        ChannelTrace.beginSection("ChannelProvider.applyWriteLog");
+        try {
+            List<ChannelWriteLog.Entry> entries = log.getPending(WRITE_LOG_BATCH_SIZE);
+            while (!entries.isEmpty()) {
+                applyWriteLogEntries(log, entries);
+                entries = log.getPending(WRITE_LOG_BATCH_SIZE);
+            }
+        } finally {
+            ChannelTrace.endSection();
+        }
+    }
+
+    private void applyWriteLogEntries(ChannelWriteLog log, List<ChannelWriteLog.Entry> entries) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ChannelWriter writer = getWriter();
+        ChannelIdBloomFilter filter = mChannelIdFilter;
+        long[] removedChannelIds = new long[entries.size()];
+        int removedCount = 0;
+        List<ChannelWriteLog.Entry> failed = new ArrayList<>();
+        long lastSequence = 0;
+
+        database.beginTransaction();
+        try {
+            for (ChannelWriteLog.Entry entry : entries) {
+                // Keep the channel id filter current, as the direct writes do
+                if (filter != null && entry.op != ChannelWriteLog.OP_DELETE) {
+                    filter.add(entry.channelId);
+                }
+                long[] oldChannelIds = filter != null && entry.op != ChannelWriteLog.OP_INSERT
+                        ? queryChannelIds(ContentUris.withAppendedId(
+                                ChannelContract.ChannelEntry.CONTENT_URI, entry.id), null, null)
+                        : new long[0];
+
+                try {
+                    switch (entry.op) {
+                        case ChannelWriteLog.OP_INSERT:
+                            writer.insert(entry.id, entry.name, entry.channelId);
+                            break;
+                        case ChannelWriteLog.OP_UPDATE:
+                            writer.update(entry.id, entry.name, entry.channelId);
+                            break;
+                        default:
+                            writer.delete(entry.id);
+                            break;
+                    }
+                    // Only an edit that went through takes the old channel id off the row
+                    for (long channelId : oldChannelIds) {
+                        removedChannelIds[removedCount++] = channelId;
+                    }
+                } catch (SQLException e) {
+                    // A bad entry must not hold up the ones behind it, so it is set aside
+                    Log.e(LOG_TAG, "Keeping failed edit " + entry.sequence + " of channel " + entry.id
+                            + " in " + ChannelWriteLog.FAILED_TABLE_NAME, e);
+                    ChannelWriteLog.keepFailed(database, entry, e);
+                    failed.add(entry);
+                }
+                lastSequence = entry.sequence;
+            }
+            // Recorded in the same transaction, so the batch is never applied twice
+            ChannelWriteLog.setAppliedSequence(database, lastSequence);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        try {
+            log.markApplied(lastSequence);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to shrink the write log", e);
+        }
+
+        // Listeners were told about the edit when it was logged, they now see it did not happen
+        for (ChannelWriteLog.Entry entry : failed) {
+            getContext().getContentResolver().notifyChange(
+                    ContentUris.withAppendedId(ChannelContract.ChannelEntry.CONTENT_URI, entry.id),
+                    null);
+        }
+        for (int i = 0; i < removedCount; i++) {
+            filter.remove(removedChannelIds[i]);
+        }
+        if (filter != null) {
+            scheduleChannelIdFilterSave();
+        }
+    }
+
     /*** Insert new data into the provider with the given ContentValues.*/
+    @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        ChannelTrace.beginSection("ChannelProvider.insert");
+        try {
+            if (sUriMatcher.match(uri) == FEEDS) {
+                // Feed entries have no row id, so the URI returned is that of the channel's feed
+                getFeedShards().insert(contentValues);
+                Uri newUri = ChannelContract.FeedEntry.contentUriForChannel(
+                        contentValues.getAsLong(ChannelContract.FeedEntry.COLUMN_CHANNEL_ID));
+                getContext().getContentResolver().notifyChange(newUri, null);
+                return newUri;
+            }
+            if (isWriteBehind(uri)) {
+                Uri newUri = logInsert(uri, contentValues);
+                if (newUri != null) {
+                    return newUri;
+                }
+            }
+            drainWriteLog();
+            synchronized (mWriteLock) {
+                return insertValues(uri, contentValues);
+            }
+        } finally {
+            ChannelTrace.endSection();
+        }
+    }
+
+    private Uri insertValues(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case CHANNELS:
                 return insertChannel(uri, contentValues);
+            case CHANNEL_TAGS:
+                return insertTag(uri, contentValues);
+            case CHANNEL_FIELDS:
+                return insertField(uri, contentValues);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -133,41 +1158,253 @@ public class ChannelProvider extends ContentProvider {
      */
     private Uri insertChannel(Uri uri, ContentValues values) {
 
-        // Check that the name is not null
-        String name = values.getAsString(ChannelContract.ChannelEntry.COLUMN_CHANNEL_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Channel requires a name");
+        // Insert the new channel with the given values
+        long id = insertChannelRow(values);
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
         }
 
-        // If the channel id is provided, check that it's greater than or equal to 0 kg
-        Integer channelId = values.getAsInteger(ChannelContract.ChannelEntry.COLUMN_CHANNEL_ID);
-        if (channelId != null && channelId < 0) {
-            throw new IllegalArgumentException("Channel requires valid channel Id");
+        // Notify all listeners that the data has changed for the new channel's content URI.
+        // Listeners on the channels URI are notified too, as it is the parent of this one.
+        Uri newUri = ContentUris.withAppendedId(uri, id);
+        getContext().getContentResolver().notifyChange(newUri, null);
+
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        return newUri;
+    }
+
+    /**
+     * Tag a channel with the tag named in the content values, creating the tag if it is new.
+     * Return the URI of the channel's tags, or null if the channel does not exist.
+     */
+    private Uri insertTag(Uri uri, ContentValues values) {
+        String tagName = values.getAsString(ChannelContract.TagEntry.COLUMN_TAG_NAME);
+        if (TextUtils.isEmpty(tagName)) {
+            throw new IllegalArgumentException("Tag requires a name");
         }
+        String channelRowId = uri.getPathSegments().get(1);
 
-        // TO-DO: Insert a new channel into the channels database table with the given ContentValues
-        // Get write-able database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            database.execSQL("INSERT OR IGNORE INTO " + ChannelContract.TagEntry.TABLE_NAME + " ("
+                    + ChannelContract.TagEntry.COLUMN_TAG_NAME + ") VALUES (?)", new Object[] { tagName });
+            database.execSQL("INSERT OR IGNORE INTO " + ChannelContract.ChannelTagEntry.TABLE_NAME + " ("
+                    + ChannelContract.ChannelTagEntry.COLUMN_CHANNEL_ROW_ID + ", "
+                    + ChannelContract.ChannelTagEntry.COLUMN_TAG_ID + ") SELECT ?, "
+                    + ChannelContract.TagEntry._ID + " FROM " + ChannelContract.TagEntry.TABLE_NAME
+                    + " WHERE " + ChannelContract.TagEntry.COLUMN_TAG_NAME + " = ?",
+                    new Object[] { channelRowId, tagName });
+            database.setTransactionSuccessful();
+        } catch (SQLException e) {
+            // The foreign key rejects tags for a channel that does not exist
+            Log.e(LOG_TAG, "Failed to insert tag for " + uri, e);
+            return null;
+        } finally {
+            database.endTransaction();
+        }
 
-        // Insert the new channel with the given values
-        long id = database.insert(ChannelContract.ChannelEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+        getContext().getContentResolver().notifyChange(uri, null);
+        return uri;
+    }
+
+    /**
+     * Set the label of one field of a channel, replacing any label it had. Return the URI of the
+     * channel's fields, or null if the channel does not exist.
+     */
+    private Uri insertField(Uri uri, ContentValues values) {
+        Integer fieldNumber = values.getAsInteger(ChannelContract.ChannelFieldEntry.COLUMN_FIELD_NUMBER);
+        if (fieldNumber == null || fieldNumber < 1
+                || fieldNumber > ChannelContract.ChannelFieldEntry.MAX_FIELD_NUMBER) {
+            throw new IllegalArgumentException("Field requires a number between 1 and "
+                    + ChannelContract.ChannelFieldEntry.MAX_FIELD_NUMBER);
+        }
+        String label = values.getAsString(ChannelContract.ChannelFieldEntry.COLUMN_FIELD_LABEL);
+        if (label == null) {
+            throw new IllegalArgumentException("Field requires a label");
+        }
+
+        ContentValues fieldValues = new ContentValues();
+        fieldValues.put(ChannelContract.ChannelFieldEntry.COLUMN_CHANNEL_ROW_ID,
+                Long.parseLong(uri.getPathSegments().get(1)));
+        fieldValues.put(ChannelContract.ChannelFieldEntry.COLUMN_FIELD_NUMBER, fieldNumber);
+        fieldValues.put(ChannelContract.ChannelFieldEntry.COLUMN_FIELD_LABEL, label);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long rowId = database.insertWithOnConflict(ChannelContract.ChannelFieldEntry.TABLE_NAME,
+                null, fieldValues, SQLiteDatabase.CONFLICT_REPLACE);
+        if (rowId == -1) {
+            Log.e(LOG_TAG, "Failed to insert field for " + uri);
             return null;
         }
 
-        // Notify all listeners that the data has changed for the channel content URI
         getContext().getContentResolver().notifyChange(uri, null);
+        return uri;
+    }
 
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, id);
+    /**
+     * Validate the content values and insert them as a new channel, without notifying anyone.
+     * Return the new row ID, or -1 if the insertion failed.
+     */
+    private long insertChannelRow(ContentValues values) {
+
+        // Check that the name is not null
+        String name = values.getAsString(ChannelContract.ChannelEntry.COLUMN_CHANNEL_NAME);
+        Channel.checkName(name);
+
+        // If the channel id is provided, check that it's greater than or equal to 0
+        long channelId = Channel.channelIdOf(values);
+        Channel.checkMetadata(values);
+
+        // The filter learns about the channel id before the row is committed, so that it is
+        // never saved without a channel id that is already in the table
+        ChannelIdBloomFilter filter = mChannelIdFilter;
+        if (filter != null) {
+            filter.add(channelId);
+            scheduleChannelIdFilterSave();
+        }
+
+        // Plain channel rows are bound straight into the compiled insert statement
+        if (Channel.hasOnlyChannelColumns(values)) {
+            try {
+                return getWriter().insert(name, channelId);
+            } catch (SQLException e) {
+                Log.e(LOG_TAG, "Error inserting " + values, e);
+                return -1;
+            }
+        }
+
+        // Get write-able database and insert any other columns as given
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        return database.insert(ChannelContract.ChannelEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Insert many channels in a single transaction and notify listeners once. Used by imports.
+     * Return the number of channels inserted. An invalid channel aborts the whole batch.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        ChannelTrace.beginSection("ChannelProvider.bulkInsert");
+        try {
+            if (sUriMatcher.match(uri) == FEEDS) {
+                // Each shard writes its part of the batch in parallel, under its own lock
+                int rowsInserted = getFeedShards().bulkInsert(values);
+                if (rowsInserted != 0) {
+                    getContext().getContentResolver().notifyChange(uri, null);
+                }
+                return rowsInserted;
+            }
+            drainWriteLog();
+            synchronized (mWriteLock) {
+                return bulkInsertChannels(uri, values);
+            }
+        } finally {
+            ChannelTrace.endSection();
+        }
+    }
+
+    private int bulkInsertChannels(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        if (match != CHANNELS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        boolean skipExisting = Boolean.parseBoolean(
+                uri.getQueryParameter(ChannelContract.ChannelEntry.QUERY_PARAMETER_SKIP_EXISTING));
+        ChannelIdBloomFilter filter = skipExisting ? getChannelIdFilter() : null;
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsInserted = 0;
+        int lookups = 0;
+        int falsePositives = 0;
+        SQLiteStatement existsStatement = null;
+        database.beginTransaction();
+        try {
+            for (ContentValues channelValues : values) {
+                // Only channel ids the filter might have seen need the lookup on the index
+                long channelId = Channel.channelIdOf(channelValues);
+                if (filter != null && filter.mightContain(channelId)) {
+                    if (existsStatement == null) {
+                        existsStatement = database.compileStatement("SELECT EXISTS (SELECT 1 FROM "
+                                + ChannelContract.ChannelEntry.TABLE_NAME + " WHERE "
+                                + ChannelContract.ChannelEntry.COLUMN_CHANNEL_ID + " = ?)");
+                    }
+                    existsStatement.bindLong(1, channelId);
+                    lookups++;
+                    if (existsStatement.simpleQueryForLong() != 0) {
+                        continue;
+                    }
+                    falsePositives++;
+                }
+                if (insertChannelRow(channelValues) != -1) {
+                    rowsInserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            if (existsStatement != null) {
+                existsStatement.close();
+            }
+            database.endTransaction();
+        }
+
+        if (filter != null) {
+            Log.d(LOG_TAG, "Imported " + rowsInserted + " of " + values.length + " channels with "
+                    + lookups + " lookups, " + falsePositives + " of them false positives ("
+                    + filter.getStats() + ")");
+        }
+
+        if (rowsInserted != 0) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return rowsInserted;
     }
 
     /*** Updates the data at the given selection and selection arguments, with the new ContentValues.*/
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
+        ChannelTrace.beginSection("ChannelProvider.update");
+        try {
+            if (isFeedUri(uri)) {
+                // Feed entries are replaced by inserting them again
+                throw new IllegalArgumentException("Update is not supported for " + uri);
+            }
+            if (isWriteBehind(uri)) {
+                int rowsUpdated = logUpdate(uri, contentValues);
+                if (rowsUpdated != -1) {
+                    return rowsUpdated;
+                }
+            }
+            drainWriteLog();
+            synchronized (mWriteLock) {
+                // Changing channel ids takes the old ones out of the filter, if it is loaded
+                if (mChannelIdFilter == null
+                        || !contentValues.containsKey(ChannelContract.ChannelEntry.COLUMN_CHANNEL_ID)) {
+                    return updateValues(uri, contentValues, selection, selectionArgs);
+                }
+                long[] oldChannelIds = queryChannelIds(uri, selection, selectionArgs);
+                long channelId = Channel.channelIdOf(contentValues);
+                // Every updated row now holds the new id, so it is counted once per row, just as
+                // the old ids are removed once per row. Otherwise deleting one of the rows later
+                // would take the id out of the filter while the others still hold it.
+                for (int i = 0; i < oldChannelIds.length; i++) {
+                    mChannelIdFilter.add(channelId);
+                }
+                int rowsUpdated = updateValues(uri, contentValues, selection, selectionArgs);
+                removeChannelIds(oldChannelIds);
+                return rowsUpdated;
+            }
+        } finally {
+            ChannelTrace.endSection();
+        }
+    }
+
+    private int updateValues(Uri uri, ContentValues contentValues, String selection,
+                             String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case CHANNELS:
@@ -176,6 +1413,19 @@ public class ChannelProvider extends ContentProvider {
                 // For the CHANNEL_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
+                // Replacing both columns of one channel goes through the compiled statement
+                if (contentValues.size() == 2
+                        && contentValues.containsKey(ChannelContract.ChannelEntry.COLUMN_CHANNEL_ID)
+                        && Channel.hasOnlyChannelColumns(contentValues)) {
+                    int rowsUpdated = getWriter().update(ContentUris.parseId(uri),
+                            contentValues.getAsString(ChannelContract.ChannelEntry.COLUMN_CHANNEL_NAME),
+                            Channel.channelIdOf(contentValues));
+                    if (rowsUpdated != 0) {
+                        getContext().getContentResolver().notifyChange(uri, null);
+                    }
+                    return rowsUpdated;
+                }
+
                 selection = ChannelContract.ChannelEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
                 return updateChannel(uri, contentValues, selection, selectionArgs);
@@ -205,12 +1455,10 @@ public class ChannelProvider extends ContentProvider {
         // If the {@link ChannelEntry#COLUMN_CHANNEL_ID} key is present,
         // check that the channel id value is valid.
         if (values.containsKey(ChannelContract.ChannelEntry.COLUMN_CHANNEL_ID)) {
-            // Check that the id is greater than or equal to 0
-            Integer id = values.getAsInteger(ChannelContract.ChannelEntry.COLUMN_CHANNEL_ID);
-            if (id != null && id < 0) {
-                throw new IllegalArgumentException("Channel requires valid id");
-            }
+            // Check that the id is a number greater than or equal to 0
+            Channel.channelIdOf(values);
         }
+        Channel.checkMetadata(values);
 
         // TO-DO: Return the number of rows that were affected
 
@@ -238,6 +1486,35 @@ public class ChannelProvider extends ContentProvider {
     /*** Delete the data at the given selection and selection arguments.*/
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        ChannelTrace.beginSection("ChannelProvider.delete");
+        try {
+            if (isFeedUri(uri)) {
+                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+            }
+            if (isWriteBehind(uri) && sUriMatcher.match(uri) == CHANNEL_ID) {
+                int rowsDeleted = logChannelEdit(ChannelWriteLog.OP_DELETE, ContentUris.parseId(uri),
+                        null, 0);
+                if (rowsDeleted != -1) {
+                    return rowsDeleted;
+                }
+            }
+            drainWriteLog();
+            synchronized (mWriteLock) {
+                if (mChannelIdFilter == null) {
+                    return deleteChannels(uri, selection, selectionArgs);
+                }
+                // The deleted channel ids leave the filter only once they are gone from the table
+                long[] oldChannelIds = queryChannelIds(uri, selection, selectionArgs);
+                int rowsDeleted = deleteChannels(uri, selection, selectionArgs);
+                removeChannelIds(oldChannelIds);
+                return rowsDeleted;
+            }
+        } finally {
+            ChannelTrace.endSection();
+        }
+    }
+
+    private int deleteChannels(Uri uri, String selection, String[] selectionArgs) {
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
@@ -256,6 +1533,24 @@ public class ChannelProvider extends ContentProvider {
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
                 rowsDeleted = database.delete(ChannelContract.ChannelEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case CHANNEL_TAGS:
+                // Untag the channel, from all tags or from those matching the selection. The
+                // selection applies to the tags table, for instance "name=?"
+                String tagSelection = ChannelContract.ChannelTagEntry.COLUMN_CHANNEL_ROW_ID + "=?";
+                if (!TextUtils.isEmpty(selection)) {
+                    tagSelection += " AND " + ChannelContract.ChannelTagEntry.COLUMN_TAG_ID + " IN (SELECT "
+                            + ChannelContract.TagEntry._ID + " FROM " + ChannelContract.TagEntry.TABLE_NAME
+                            + " WHERE " + selection + ")";
+                }
+                rowsDeleted = database.delete(ChannelContract.ChannelTagEntry.TABLE_NAME, tagSelection,
+                        channelRowSelectionArgs(uri, selectionArgs));
+                break;
+            case CHANNEL_FIELDS:
+                // Remove the labels of the channel's fields, all or those matching the selection
+                rowsDeleted = database.delete(ChannelContract.ChannelFieldEntry.TABLE_NAME,
+                        channelRowSelection(ChannelContract.ChannelFieldEntry.COLUMN_CHANNEL_ROW_ID, selection),
+                        channelRowSelectionArgs(uri, selectionArgs));
+                break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
@@ -271,6 +1566,82 @@ public class ChannelProvider extends ContentProvider {
 
     }
 
+    /**
+     * Handles {@link ChannelContract.ChannelEntry#METHOD_READ_CHANNELS}, which returns a page of
+     * channels as packed arrays in one Bundle rather than as a cursor paged over binder one
+     * window at a time.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (!ChannelContract.ChannelEntry.METHOD_READ_CHANNELS.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        ChannelTrace.beginSection("ChannelProvider.call");
+        try {
+            drainWriteLog();
+            long afterId = 0;
+            int limit = MAX_READ_PAGE_ROWS;
+            if (extras != null) {
+                afterId = extras.getLong(ChannelContract.ChannelEntry.EXTRA_AFTER_ID, 0);
+                limit = extras.getInt(ChannelContract.ChannelEntry.EXTRA_LIMIT, MAX_READ_PAGE_ROWS);
+            }
+            if (limit < 1) {
+                throw new IllegalArgumentException("Invalid limit " + limit);
+            }
+            return readChannelPage(afterId, Math.min(limit, MAX_READ_PAGE_ROWS));
+        } finally {
+            ChannelTrace.endSection();
+        }
+    }
+
+    /**
+     * Reads up to the given number of channels after the given _ID into packed arrays. The
+     * names are read as blobs, so they are copied as UTF-8 without being decoded into strings.
+     */
+    private Bundle readChannelPage(long afterId, int limit) {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        Cursor cursor = database.rawQuery(SQL_READ_CHANNEL_PAGE,
+                new String[] { String.valueOf(afterId), String.valueOf(limit) });
+        long[] ids;
+        long[] channelIds;
+        int[] nameOffsets;
+        byte[] names;
+        int count = 0;
+        boolean cutShort = false;
+        try {
+            int rows = cursor.getCount();
+            ids = new long[rows];
+            channelIds = new long[rows];
+            nameOffsets = new int[rows + 1];
+            names = new byte[Math.max(16, rows * 16)];
+            while (cursor.moveToNext()) {
+                if (nameOffsets[count] > MAX_READ_PAGE_NAME_BYTES) {
+                    cutShort = true;
+                    break;
+                }
+                ids[count] = cursor.getLong(0);
+                channelIds[count] = cursor.getLong(1);
+                byte[] name = cursor.getBlob(2);
+                int start = nameOffsets[count];
+                if (start + name.length > names.length) {
+                    names = Arrays.copyOf(names, Math.max(start + name.length, names.length * 2));
+                }
+                System.arraycopy(name, 0, names, start, name.length);
+                nameOffsets[++count] = start + name.length;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Bundle page = new Bundle();
+        page.putLongArray(ChannelContract.ChannelEntry.EXTRA_IDS, Arrays.copyOf(ids, count));
+        page.putLongArray(ChannelContract.ChannelEntry.EXTRA_CHANNEL_IDS, Arrays.copyOf(channelIds, count));
+        page.putByteArray(ChannelContract.ChannelEntry.EXTRA_NAMES, Arrays.copyOf(names, nameOffsets[count]));
+        page.putIntArray(ChannelContract.ChannelEntry.EXTRA_NAME_OFFSETS, Arrays.copyOf(nameOffsets, count + 1));
+        page.putBoolean(ChannelContract.ChannelEntry.EXTRA_HAS_MORE, cutShort || count == limit);
+        return page;
+    }
+
     /*** Returns the MIME type of data for the content URI.*/
     @Override
     public String getType(Uri uri) {
@@ -280,6 +1651,26 @@ public class ChannelProvider extends ContentProvider {
                 return ChannelContract.ChannelEntry.CONTENT_LIST_TYPE;
             case CHANNEL_ID:
                 return ChannelContract.ChannelEntry.CONTENT_ITEM_TYPE;
+            case CHANNELS_COUNT:
+                return ChannelContract.ChannelEntry.CONTENT_COUNT_TYPE;
+            case CHANNELS_STATS:
+                return ChannelContract.ChannelEntry.CONTENT_STATS_TYPE;
+            case CHANNELS_CHANGES:
+                return ChannelContract.ChannelEntry.CONTENT_CHANGES_TYPE;
+            case CHANNELS_CATALOG:
+                return ChannelContract.ChannelEntry.CONTENT_CATALOG_TYPE;
+            case CHANNEL_TAGS:
+                return ChannelContract.TagEntry.CONTENT_LIST_TYPE;
+            case CHANNEL_FIELDS:
+                return ChannelContract.ChannelFieldEntry.CONTENT_LIST_TYPE;
+            case CHANNELS_WITHIN:
+                return ChannelContract.ChannelEntry.CONTENT_WITHIN_TYPE;
+            case CHANNELS_NEAREST:
+                return ChannelContract.ChannelEntry.CONTENT_NEAREST_TYPE;
+            case FEEDS:
+                return ChannelContract.FeedEntry.CONTENT_LIST_TYPE;
+            case FEEDS_LATEST:
+                return ChannelContract.FeedEntry.CONTENT_LATEST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -0,0 +1,227 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A provider query that is re-run whenever its data changes, delivering each fresh cursor to an
+ * {@link Observer} on the main thread.
+ * <p>
+ * Unlike a CursorLoader, which re-queries on every change notification, the stream coalesces the
+ * notifications that arrive within the debounce window into one query. A burst of a thousand
+ * writes therefore costs a handful of queries. When a newer query starts, the one still running
+ * is cancelled, and a result that has been overtaken is closed instead of delivered.
+ */
+public class ChannelQueryStream {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = ChannelQueryStream.class.getSimpleName();
+
+    /** Default time to collect change notifications before querying again */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 100;
+
+    /** Background threads shared by all streams, for both the debounce timers and the queries */
+    private static final ScheduledExecutorService sExecutor = Executors.newScheduledThreadPool(2);
+
+    /*** Receives the results of the stream on the main thread.*/
+    public interface Observer {
+
+        /**
+         * Called with each new result. The observer owns the cursor and must close it once it is
+         * no longer shown.
+         */
+        void onNext(Cursor cursor);
+
+        /*** Called when a query fails. The stream keeps listening for changes.*/
+        void onError(RuntimeException e);
+    }
+
+    /*** Handle for stopping a subscription.*/
+    public interface Subscription {
+
+        /*** Stops listening for changes, cancels any running query and drops pending results.*/
+        void unsubscribe();
+    }
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final String mSortOrder;
+    private final long mDebounceMillis;
+
+    /**
+     * Constructs a new stream for the given query. Nothing runs until it is subscribed to.
+     *
+     * @param debounceMillis how long to collect change notifications before querying again
+     */
+    public ChannelQueryStream(ContentResolver resolver, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder,
+                              long debounceMillis) {
+        mResolver = resolver;
+        mUri = uri;
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSortOrder = sortOrder;
+        mDebounceMillis = debounceMillis;
+    }
+
+    /**
+     * Runs the query straight away and again after each batch of changes, until the returned
+     * subscription is stopped. Must be called on the main thread.
+     */
+    public Subscription subscribe(Observer observer) {
+        QuerySubscription subscription = new QuerySubscription(observer);
+        subscription.start();
+        return subscription;
+    }
+
+    /*** State of one subscriber: its observer, the pending refresh and the running query.*/
+    private class QuerySubscription extends ContentObserver implements Subscription {
+
+        private final Observer mObserver;
+
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+        /** Incremented for every query, so that overtaken results can be recognised */
+        private int mGeneration;
+
+        /** True while a refresh is scheduled but has not started yet */
+        private boolean mRefreshPending;
+
+        /** Signal of the query currently running, if any */
+        private CancellationSignal mCancellationSignal;
+
+        private volatile boolean mUnsubscribed;
+
+        QuerySubscription(Observer observer) {
+            super(null);
+            mObserver = observer;
+        }
+
+        void start() {
+            mResolver.registerContentObserver(mUri, true, this);
+            sExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runQuery();
+                }
+            });
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            synchronized (this) {
+                // Changes that arrive while a refresh is pending are folded into it
+                if (mUnsubscribed || mRefreshPending) {
+                    return;
+                }
+                mRefreshPending = true;
+            }
+            sExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (QuerySubscription.this) {
+                        mRefreshPending = false;
+                    }
+                    runQuery();
+                }
+            }, mDebounceMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void runQuery() {
+            final int generation;
+            CancellationSignal cancellationSignal = new CancellationSignal();
+            synchronized (this) {
+                if (mUnsubscribed) {
+                    return;
+                }
+                // Whatever is still running is stale now
+                if (mCancellationSignal != null) {
+                    mCancellationSignal.cancel();
+                }
+                mCancellationSignal = cancellationSignal;
+                generation = ++mGeneration;
+            }
+
+            Cursor result = null;
+            try {
+                result = mResolver.query(mUri, mProjection, mSelection, mSelectionArgs, mSortOrder,
+                        cancellationSignal);
+                if (result != null) {
+                    // Fill the first window here rather than on the main thread. This is also
+                    // where a cancelled query usually stops, after query() has returned.
+                    result.getCount();
+                }
+            } catch (OperationCanceledException e) {
+                if (result != null) {
+                    result.close();
+                }
+                return;
+            } catch (final RuntimeException e) {
+                if (result != null) {
+                    result.close();
+                }
+                Log.e(LOG_TAG, "Error querying " + mUri, e);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mUnsubscribed) {
+                            mObserver.onError(e);
+                        }
+                    }
+                });
+                return;
+            } finally {
+                synchronized (this) {
+                    if (mCancellationSignal == cancellationSignal) {
+                        mCancellationSignal = null;
+                    }
+                }
+            }
+            final Cursor cursor = result;
+            if (cursor == null) {
+                return;
+            }
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    boolean current;
+                    synchronized (QuerySubscription.this) {
+                        current = !mUnsubscribed && generation == mGeneration;
+                    }
+                    if (current) {
+                        mObserver.onNext(cursor);
+                    } else {
+                        cursor.close();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void unsubscribe() {
+            mResolver.unregisterContentObserver(this);
+            synchronized (this) {
+                mUnsubscribed = true;
+                if (mCancellationSignal != null) {
+                    mCancellationSignal.cancel();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,507 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Immutable, column-oriented copy of the channels table, used to filter and sort the channel list
+ * in memory without going back to SQLite. The ids live in primitive arrays and all names are
+ * packed one after another as UTF-8 in a single byte array.
+ * <p>
+ * Rows are addressed by their position in the snapshot. {@link #filter(String)} and the sort
+ * methods return positions, which {@link #toCursor(int[])} turns into a cursor for the adapter.
+ * Changes produce a new snapshot, so a snapshot can be shared freely between threads.
+ */
+public final class ChannelSnapshot {
+
+    /** Columns of the cursors returned by {@link #toCursor(int[])} */
+    public static final String[] COLUMNS = {
+            ChannelEntry._ID,
+            ChannelEntry.COLUMN_CHANNEL_NAME,
+            ChannelEntry.COLUMN_CHANNEL_ID };
+
+    /** Snapshot of an empty table */
+    public static final ChannelSnapshot EMPTY =
+            new ChannelSnapshot(new long[0], new long[0], new byte[0], new int[] { 0 });
+
+    /** Below this many rows, filtering and sorting stay on the calling thread */
+    private static final int PARALLEL_THRESHOLD = 8192;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Worker threads shared by all snapshots for parallel filtering and sorting */
+    private static final ExecutorService sExecutor =
+            Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    /** {@link ChannelEntry#_ID} of each row */
+    private final long[] mIds;
+
+    /** {@link ChannelEntry#COLUMN_CHANNEL_ID} of each row */
+    private final long[] mChannelIds;
+
+    /** UTF-8 bytes of all names, back to back */
+    private final byte[] mNames;
+
+    /** Start of each row's name in {@link #mNames}, with one extra entry marking the end */
+    private final int[] mNameOffsets;
+
+    private ChannelSnapshot(long[] ids, long[] channelIds, byte[] names, int[] nameOffsets) {
+        mIds = ids;
+        mChannelIds = channelIds;
+        mNames = names;
+        mNameOffsets = nameOffsets;
+    }
+
+    /**
+     * Wraps columns that are already packed the way a snapshot keeps them, as returned by
+     * {@link ChannelContract.ChannelEntry#METHOD_READ_CHANNELS}. The arrays are not copied.
+     */
+    static ChannelSnapshot fromPackedColumns(long[] ids, long[] channelIds, byte[] names,
+                                             int[] nameOffsets) {
+        return new ChannelSnapshot(ids, channelIds, names, nameOffsets);
+    }
+
+    /**
+     * Reads every row of the given cursor into a new snapshot. The cursor must contain the
+     * {@link #COLUMNS} and is not closed.
+     */
+    public static ChannelSnapshot fromCursor(Cursor cursor) {
+        int count = cursor.getCount();
+        long[] ids = new long[count];
+        long[] channelIds = new long[count];
+        int[] nameOffsets = new int[count + 1];
+        byte[] names = new byte[Math.max(16, count * 16)];
+
+        int idColumnIndex = cursor.getColumnIndexOrThrow(ChannelEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndexOrThrow(ChannelEntry.COLUMN_CHANNEL_NAME);
+        int channelIdColumnIndex = cursor.getColumnIndexOrThrow(ChannelEntry.COLUMN_CHANNEL_ID);
+
+        int row = 0;
+        int length = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext() && row < count) {
+            ids[row] = cursor.getLong(idColumnIndex);
+            channelIds[row] = cursor.getLong(channelIdColumnIndex);
+
+            byte[] name = encode(cursor.getString(nameColumnIndex));
+            if (length + name.length > names.length) {
+                names = Arrays.copyOf(names, Math.max(names.length * 2, length + name.length));
+            }
+            System.arraycopy(name, 0, names, length, name.length);
+            nameOffsets[row] = length;
+            length += name.length;
+            row++;
+        }
+        nameOffsets[row] = length;
+
+        return new ChannelSnapshot(Arrays.copyOf(ids, row), Arrays.copyOf(channelIds, row),
+                Arrays.copyOf(names, length), Arrays.copyOf(nameOffsets, row + 1));
+    }
+
+    /*** Returns the number of channels in the snapshot.*/
+    public int size() {
+        return mIds.length;
+    }
+
+    /*** Returns the {@link ChannelEntry#_ID} of the row at the given position.*/
+    public long getId(int row) {
+        return mIds[row];
+    }
+
+    /*** Returns the {@link ChannelEntry#COLUMN_CHANNEL_ID} of the row at the given position.*/
+    public long getChannelId(int row) {
+        return mChannelIds[row];
+    }
+
+    /*** Returns the name of the row at the given position.*/
+    public String getName(int row) {
+        int start = mNameOffsets[row];
+        return new String(mNames, start, mNameOffsets[row + 1] - start, UTF_8);
+    }
+
+    /*** Returns the position of the row with the given {@link ChannelEntry#_ID}, or -1.*/
+    public int indexOf(long id) {
+        // Rows are kept in _ID order, as the provider returns them
+        int row = Arrays.binarySearch(mIds, id);
+        return row >= 0 ? row : -1;
+    }
+
+    /**
+     * Returns a copy of this snapshot with a batch of rows added, replaced or removed in a single
+     * pass. The {@link ChannelEntry#_ID}s must be in ascending order without duplicates; a null
+     * name removes the row with that id, any other name adds it or replaces the existing row.
+     */
+    public ChannelSnapshot withRows(long[] ids, String[] names, long[] channelIds) {
+        byte[][] encodedNames = new byte[ids.length][];
+        int addedLength = 0;
+        for (int j = 0; j < ids.length; j++) {
+            if (names[j] != null) {
+                encodedNames[j] = encode(names[j]);
+                addedLength += encodedNames[j].length;
+            }
+        }
+
+        int capacity = mIds.length + ids.length;
+        long[] newIds = new long[capacity];
+        long[] newChannelIds = new long[capacity];
+        int[] newOffsets = new int[capacity + 1];
+        byte[] newNames = new byte[mNames.length + addedLength];
+
+        // Merge the existing rows with the changed ones, both sorted by _ID
+        int row = 0;
+        int length = 0;
+        int i = 0;
+        int j = 0;
+        while (i < mIds.length || j < ids.length) {
+            if (j == ids.length || (i < mIds.length && mIds[i] < ids[j])) {
+                int start = mNameOffsets[i];
+                int nameLength = mNameOffsets[i + 1] - start;
+                newIds[row] = mIds[i];
+                newChannelIds[row] = mChannelIds[i];
+                newOffsets[row] = length;
+                System.arraycopy(mNames, start, newNames, length, nameLength);
+                length += nameLength;
+                row++;
+                i++;
+                continue;
+            }
+            if (i < mIds.length && mIds[i] == ids[j]) {
+                // The old row is replaced or removed
+                i++;
+            }
+            if (encodedNames[j] != null) {
+                newIds[row] = ids[j];
+                newChannelIds[row] = channelIds[j];
+                newOffsets[row] = length;
+                System.arraycopy(encodedNames[j], 0, newNames, length, encodedNames[j].length);
+                length += encodedNames[j].length;
+                row++;
+            }
+            j++;
+        }
+        newOffsets[row] = length;
+
+        return new ChannelSnapshot(Arrays.copyOf(newIds, row), Arrays.copyOf(newChannelIds, row),
+                Arrays.copyOf(newNames, length), Arrays.copyOf(newOffsets, row + 1));
+    }
+
+    /**
+     * Returns the positions of the rows whose name contains the given text, ignoring ASCII case,
+     * or whose channel id starts with it. Large snapshots are filtered on several threads, and
+     * the calling thread waits for all of them, so this is not for the main thread.
+     */
+    public int[] filter(String query) {
+        final int count = mIds.length;
+        if (query == null || query.isEmpty()) {
+            int[] all = new int[count];
+            for (int i = 0; i < count; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        final byte[] needle = encode(query.toLowerCase(Locale.ROOT));
+        final long channelIdPrefix = parseChannelId(query);
+        if (count < PARALLEL_THRESHOLD) {
+            return filterRange(needle, channelIdPrefix, 0, count);
+        }
+
+        // Split the rows into one range per worker and concatenate the matches in order
+        int chunks = Math.max(2, Runtime.getRuntime().availableProcessors());
+        int chunkSize = (count + chunks - 1) / chunks;
+        List<Callable<int[]>> tasks = new ArrayList<>();
+        for (int start = 0; start < count; start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(count, start + chunkSize);
+            tasks.add(new Callable<int[]>() {
+                @Override
+                public int[] call() {
+                    return filterRange(needle, channelIdPrefix, from, to);
+                }
+            });
+        }
+
+        List<int[]> results = invokeAll(tasks);
+        int total = 0;
+        for (int[] result : results) {
+            total += result.length;
+        }
+        int[] matches = new int[total];
+        int position = 0;
+        for (int[] result : results) {
+            System.arraycopy(result, 0, matches, position, result.length);
+            position += result.length;
+        }
+        return matches;
+    }
+
+    /*** Filters the rows in [from, to), see {@link #filter(String)}.*/
+    private int[] filterRange(byte[] needle, long channelIdPrefix, int from, int to) {
+        int[] matches = new int[to - from];
+        int found = 0;
+        for (int row = from; row < to; row++) {
+            if (nameContains(row, needle) || channelIdStartsWith(mChannelIds[row], channelIdPrefix)) {
+                matches[found++] = row;
+            }
+        }
+        return Arrays.copyOf(matches, found);
+    }
+
+    /*** Returns true if the name of the row contains the lower case UTF-8 needle.*/
+    private boolean nameContains(int row, byte[] needle) {
+        int start = mNameOffsets[row];
+        int last = mNameOffsets[row + 1] - needle.length;
+        for (int i = start; i <= last; i++) {
+            int j = 0;
+            while (j < needle.length && toLowerCase(mNames[i + j]) == needle[j]) {
+                j++;
+            }
+            if (j == needle.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*** Returns true if the decimal digits of the channel id start with those of the prefix.*/
+    private static boolean channelIdStartsWith(long channelId, long prefix) {
+        if (prefix <= 0 || channelId < prefix) {
+            // Only 0 itself starts with 0, every other channel id has no leading zero
+            return prefix == 0 && channelId == 0;
+        }
+        while (channelId > prefix) {
+            channelId /= 10;
+        }
+        return channelId == prefix;
+    }
+
+    /**
+     * Returns the query as a channel id, or -1 if it isn't a number or has a leading zero, which
+     * no channel id other than 0 starts with.
+     */
+    private static long parseChannelId(String query) {
+        if (query.length() > 18 || (query.length() > 1 && query.charAt(0) == '0')) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static byte toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    /*** Returns the given positions ordered by name, in UTF-8 byte order.*/
+    public int[] sortByName(int[] rows) {
+        return sort(rows, new RowOrder() {
+            @Override
+            public int compare(int a, int b) {
+                return compareNames(a, b);
+            }
+        });
+    }
+
+    /*** Returns the given positions ordered by channel id.*/
+    public int[] sortByChannelId(int[] rows) {
+        return sort(rows, new RowOrder() {
+            @Override
+            public int compare(int a, int b) {
+                long left = mChannelIds[a];
+                long right = mChannelIds[b];
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+    }
+
+    private int compareNames(int a, int b) {
+        int i = mNameOffsets[a];
+        int j = mNameOffsets[b];
+        int endA = mNameOffsets[a + 1];
+        int endB = mNameOffsets[b + 1];
+        while (i < endA && j < endB) {
+            int difference = (mNames[i++] & 0xff) - (mNames[j++] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return (endA - i) - (endB - j);
+    }
+
+    /*** Order of two rows, given by their positions.*/
+    private interface RowOrder {
+        int compare(int a, int b);
+    }
+
+    /**
+     * Stable merge sort of row positions. Large inputs are split into one run per worker, the
+     * runs are sorted in parallel and then merged.
+     */
+    private static int[] sort(int[] rows, final RowOrder order) {
+        final int[] sorted = rows.clone();
+        final int[] buffer = new int[sorted.length];
+        if (sorted.length < PARALLEL_THRESHOLD) {
+            mergeSort(sorted, buffer, 0, sorted.length, order);
+            return sorted;
+        }
+
+        int chunks = Math.max(2, Runtime.getRuntime().availableProcessors());
+        int chunkSize = (sorted.length + chunks - 1) / chunks;
+        List<Callable<int[]>> tasks = new ArrayList<>();
+        for (int start = 0; start < sorted.length; start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(sorted.length, start + chunkSize);
+            tasks.add(new Callable<int[]>() {
+                @Override
+                public int[] call() {
+                    mergeSort(sorted, buffer, from, to, order);
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks);
+
+        for (int width = chunkSize; width < sorted.length; width *= 2) {
+            for (int from = 0; from + width < sorted.length; from += 2 * width) {
+                merge(sorted, buffer, from, from + width,
+                        Math.min(sorted.length, from + 2 * width), order);
+            }
+        }
+        return sorted;
+    }
+
+    private static void mergeSort(int[] rows, int[] buffer, int from, int to, RowOrder order) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, buffer, from, middle, order);
+        mergeSort(rows, buffer, middle, to, order);
+        merge(rows, buffer, from, middle, to, order);
+    }
+
+    private static void merge(int[] rows, int[] buffer, int from, int middle, int to,
+                              RowOrder order) {
+        if (order.compare(rows[middle - 1], rows[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(rows, from, buffer, from, to - from);
+        int i = from;
+        int j = middle;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < middle && order.compare(buffer[i], buffer[j]) <= 0)) {
+                rows[k] = buffer[i++];
+            } else {
+                rows[k] = buffer[j++];
+            }
+        }
+    }
+
+    private static <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        try {
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : sExecutor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while filtering channels", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to filter channels", e.getCause());
+        }
+    }
+
+    private static byte[] encode(String name) {
+        return name == null ? new byte[0] : name.getBytes(UTF_8);
+    }
+
+    /**
+     * Returns a cursor over the rows at the given positions, in that order, with the
+     * {@link #COLUMNS}. The rows are read straight from the snapshot, nothing is copied.
+     */
+    public Cursor toCursor(final int[] rows) {
+        return new AbstractCursor() {
+            @Override
+            public int getCount() {
+                return rows.length;
+            }
+
+            @Override
+            public String[] getColumnNames() {
+                return COLUMNS;
+            }
+
+            @Override
+            public String getString(int column) {
+                int row = rows[getPosition()];
+                switch (column) {
+                    case 0:
+                        return Long.toString(mIds[row]);
+                    case 1:
+                        return getName(row);
+                    default:
+                        return Long.toString(mChannelIds[row]);
+                }
+            }
+
+            @Override
+            public long getLong(int column) {
+                int row = rows[getPosition()];
+                switch (column) {
+                    case 0:
+                        return mIds[row];
+                    case 1:
+                        // Like SQLite, treat a name read as a number as 0
+                        return 0;
+                    default:
+                        return mChannelIds[row];
+                }
+            }
+
+            @Override
+            public short getShort(int column) {
+                return (short) getLong(column);
+            }
+
+            @Override
+            public int getInt(int column) {
+                return (int) getLong(column);
+            }
+
+            @Override
+            public float getFloat(int column) {
+                return getLong(column);
+            }
+
+            @Override
+            public double getDouble(int column) {
+                return getLong(column);
+            }
+
+            @Override
+            public boolean isNull(int column) {
+                return false;
+            }
+        };
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.OperationCanceledException;
+
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Keeps a {@link ChannelSnapshot} of the channels table up to date on a background thread.
+ * The snapshot is built once when the cache is started. Change notifications are collected for a
+ * short delay; the channels they name are then re-read with one query and merged into the
+ * snapshot in a single pass, and the table is rebuilt when a notification covers the whole table
+ * or too many channels changed at once.
+ */
+public class ChannelSnapshotCache {
+
+    /*** Receives every new snapshot. Called on the cache's background thread.*/
+    public interface Listener {
+        void onSnapshotChanged(ChannelSnapshot snapshot);
+    }
+
+    /*** Receives the result of {@link #filter}. Called on the cache's background thread.*/
+    public interface FilterListener {
+        /*** Takes a cursor over the matching rows, which the listener has to close.*/
+        void onFiltered(String filter, Cursor cursor);
+    }
+
+    /** How long notifications are collected before the snapshot is updated, in milliseconds */
+    private static final long BATCH_DELAY_MS = 100;
+
+    /** Past this many changed channels in one batch, re-reading the whole table is cheaper */
+    private static final int MAX_BATCH_ROWS = 256;
+
+    private final ContentResolver mResolver;
+
+    private final Listener mListener;
+
+    private HandlerThread mThread;
+
+    private Handler mHandler;
+
+    private ContentObserver mObserver;
+
+    /** _IDs of the channels changed since the last update, only touched on the background thread */
+    private final TreeSet<Long> mPendingIds = new TreeSet<>();
+
+    /** Whether the pending batch needs the whole table re-read, only touched on the background thread */
+    private boolean mRebuildPending;
+
+    /** Whether {@link #mFlush} is already scheduled, only touched on the background thread */
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /** Signal for the query currently running on the background thread, if any */
+    private volatile CancellationSignal mCancellationSignal;
+
+    /** The latest snapshot, replaced as a whole whenever the table changes */
+    private volatile ChannelSnapshot mSnapshot = ChannelSnapshot.EMPTY;
+
+    /**
+     * Constructs a new instance of {@link ChannelSnapshotCache}.
+     *
+     * @param resolver used to query the provider and to listen for changes
+     * @param listener to be told about each new snapshot
+     */
+    public ChannelSnapshotCache(ContentResolver resolver, Listener listener) {
+        mResolver = resolver;
+        mListener = listener;
+    }
+
+    /*** Builds the first snapshot in the background and starts following changes.*/
+    public void start() {
+        mThread = new HandlerThread(ChannelSnapshotCache.class.getSimpleName());
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        mObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                long id = parseChannelId(uri);
+                if (id == -1 || mPendingIds.size() >= MAX_BATCH_ROWS) {
+                    mRebuildPending = true;
+                    mPendingIds.clear();
+                } else if (!mRebuildPending) {
+                    mPendingIds.add(id);
+                }
+                if (!mFlushScheduled) {
+                    mFlushScheduled = true;
+                    mHandler.postDelayed(mFlush, BATCH_DELAY_MS);
+                }
+            }
+        };
+        mResolver.registerContentObserver(ChannelEntry.CONTENT_URI, true, mObserver);
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                rebuild();
+            }
+        });
+    }
+
+    /*** Stops following changes and ends the background thread, cancelling any running query.*/
+    public void stop() {
+        mResolver.unregisterContentObserver(mObserver);
+        mHandler.removeCallbacks(mFlush);
+        mThread.quit();
+
+        CancellationSignal cancellationSignal = mCancellationSignal;
+        if (cancellationSignal != null) {
+            cancellationSignal.cancel();
+        }
+    }
+
+    /*** Returns the latest snapshot; empty until the first one has been built.*/
+    public ChannelSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Filters the latest snapshot on the background thread, see {@link ChannelSnapshot#filter},
+     * and hands the matching rows to the listener. Nothing is delivered once the cache is stopped.
+     */
+    public void filter(final String filter, final FilterListener listener) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                ChannelSnapshot snapshot = mSnapshot;
+                listener.onFiltered(filter, snapshot.toCursor(snapshot.filter(filter)));
+            }
+        });
+    }
+
+    /**
+     * Returns the _ID of a content URI for a single channel or for its tags or fields, or -1 for
+     * any other URI.
+     */
+    private static long parseChannelId(Uri uri) {
+        if (uri == null) {
+            return -1;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2 || !ChannelContract.PATH_CHANNELS.equals(segments.get(0))) {
+            return -1;
+        }
+        String id = segments.get(1);
+        if (id.isEmpty()) {
+            return -1;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (!Character.isDigit(id.charAt(i))) {
+                return -1;
+            }
+        }
+        return Long.parseLong(id);
+    }
+
+    /*** Reads the whole table into a new snapshot.*/
+    private void rebuild() {
+        // The full scan is the one query worth cancelling when the cache is stopped
+        // The signal stays attached to the cursor, so later window fills can be cancelled too.
+        mCancellationSignal = new CancellationSignal();
+        try {
+            Cursor cursor = mResolver.query(ChannelEntry.CONTENT_URI, ChannelSnapshot.COLUMNS,
+                    null, null, ChannelEntry._ID, mCancellationSignal);
+            if (cursor == null) {
+                return;
+            }
+            try {
+                publish(ChannelSnapshot.fromCursor(cursor));
+            } finally {
+                cursor.close();
+            }
+        } catch (OperationCanceledException e) {
+            // Stopped while scanning, nobody is waiting for this snapshot any more
+        } finally {
+            mCancellationSignal = null;
+        }
+    }
+
+    /*** Applies the notifications collected since the last update.*/
+    private void flush() {
+        mFlushScheduled = false;
+        if (mRebuildPending) {
+            mRebuildPending = false;
+            rebuild();
+            return;
+        }
+        if (mPendingIds.isEmpty()) {
+            return;
+        }
+
+        long[] ids = new long[mPendingIds.size()];
+        String[] selectionArgs = new String[ids.length];
+        StringBuilder selection = new StringBuilder(ChannelEntry._ID).append(" IN (");
+        int i = 0;
+        for (Long id : mPendingIds) {
+            ids[i] = id;
+            selectionArgs[i] = String.valueOf(id);
+            selection.append(i == 0 ? "?" : ",?");
+            i++;
+        }
+        selection.append(')');
+        mPendingIds.clear();
+
+        refreshRows(ids, selection.toString(), selectionArgs);
+    }
+
+    /**
+     * Re-reads the given channels with one query and merges them into, or out of, the current
+     * snapshot. The ids are in ascending order.
+     */
+    private void refreshRows(long[] ids, String selection, String[] selectionArgs) {
+        Cursor cursor = mResolver.query(ChannelEntry.CONTENT_URI, ChannelSnapshot.COLUMNS,
+                selection, selectionArgs, null);
+        if (cursor == null) {
+            return;
+        }
+        // Channels missing from the result have been deleted and keep a null name
+        String[] names = new String[ids.length];
+        long[] channelIds = new long[ids.length];
+        try {
+            int idColumnIndex = cursor.getColumnIndexOrThrow(ChannelEntry._ID);
+            int nameColumnIndex = cursor.getColumnIndexOrThrow(ChannelEntry.COLUMN_CHANNEL_NAME);
+            int channelIdColumnIndex = cursor.getColumnIndexOrThrow(ChannelEntry.COLUMN_CHANNEL_ID);
+            while (cursor.moveToNext()) {
+                int row = Arrays.binarySearch(ids, cursor.getLong(idColumnIndex));
+                if (row >= 0) {
+                    names[row] = cursor.getString(nameColumnIndex);
+                    channelIds[row] = cursor.getLong(channelIdColumnIndex);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        publish(mSnapshot.withRows(ids, names, channelIds));
+    }
+
+    private void publish(ChannelSnapshot snapshot) {
+        mSnapshot = snapshot;
+        mListener.onSnapshotChanged(snapshot);
+    }
+}
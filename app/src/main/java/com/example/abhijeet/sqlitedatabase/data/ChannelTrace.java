@@ -0,0 +1,165 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import android.os.Trace;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Trace sections for the channel pipeline, from the provider through to the list adapter.
+ * <p>
+ * On a device, sections go to {@link Trace} and show up in systrace and Perfetto. Where the
+ * Android trace API is not available, as in JVM unit tests, they are ignored unless recording
+ * has been started with {@link #startRecording()}; recorded sections can then be written out
+ * with {@link #writeChromeTrace(Writer)} and opened in chrome://tracing or Perfetto.
+ * <p>
+ * Every {@link #beginSection(String)} must be matched by an {@link #endSection()} on the same
+ * thread, usually in a finally block.
+ */
+public final class ChannelTrace {
+
+    /** Whether android.os.Trace works in this process */
+    private static final boolean SYSTEM_TRACE_AVAILABLE = isSystemTraceAvailable();
+
+    /** Whether sections are currently being recorded for {@link #writeChromeTrace(Writer)} */
+    private static volatile boolean sRecording;
+
+    /** Time recording started, trace timestamps are relative to it */
+    private static long sRecordingStartNanos;
+
+    /** Sections recorded so far, in the order they ended */
+    private static final List<Section> sSections = new ArrayList<>();
+
+    /** Sections currently open on each thread */
+    private static final ThreadLocal<SectionStack> sOpenSections = new ThreadLocal<SectionStack>() {
+        @Override
+        protected SectionStack initialValue() {
+            return new SectionStack();
+        }
+    };
+
+    private ChannelTrace() {
+    }
+
+    /*** A finished section, as written to the trace file.*/
+    private static final class Section {
+        final String name;
+        final long threadId;
+        final long startNanos;
+        final long durationNanos;
+
+        Section(String name, long threadId, long startNanos, long durationNanos) {
+            this.name = name;
+            this.threadId = threadId;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+        }
+    }
+
+    /*** Names and start times of the open sections of one thread, kept in growable arrays.*/
+    private static final class SectionStack {
+        String[] names = new String[16];
+        long[] startNanos = new long[16];
+        int depth;
+    }
+
+    private static boolean isSystemTraceAvailable() {
+        try {
+            // The android.jar used for JVM tests throws from every method
+            Trace.beginSection(ChannelTrace.class.getSimpleName());
+            Trace.endSection();
+            return true;
+        } catch (RuntimeException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /*** Begins a section with the given name on the current thread.*/
+    public static void beginSection(String name) {
+        if (SYSTEM_TRACE_AVAILABLE) {
+            Trace.beginSection(name);
+        }
+
+        SectionStack stack = sOpenSections.get();
+        if (stack.depth == stack.names.length) {
+            stack.names = Arrays.copyOf(stack.names, stack.depth * 2);
+            stack.startNanos = Arrays.copyOf(stack.startNanos, stack.depth * 2);
+        }
+        stack.names[stack.depth] = name;
+        stack.startNanos[stack.depth] = System.nanoTime();
+        stack.depth++;
+    }
+
+    /*** Ends the section most recently begun on the current thread.*/
+    public static void endSection() {
+        if (SYSTEM_TRACE_AVAILABLE) {
+            Trace.endSection();
+        }
+
+        SectionStack stack = sOpenSections.get();
+        if (stack.depth == 0) {
+            return;
+        }
+        stack.depth--;
+        String name = stack.names[stack.depth];
+        stack.names[stack.depth] = null;
+
+        if (sRecording) {
+            long start = stack.startNanos[stack.depth];
+            Section section = new Section(name, Thread.currentThread().getId(), start,
+                    System.nanoTime() - start);
+            synchronized (sSections) {
+                sSections.add(section);
+            }
+        }
+    }
+
+    /*** Discards any recorded sections and starts recording new ones.*/
+    public static void startRecording() {
+        synchronized (sSections) {
+            sSections.clear();
+            sRecordingStartNanos = System.nanoTime();
+        }
+        sRecording = true;
+    }
+
+    /*** Stops recording. The sections recorded so far are kept until recording starts again.*/
+    public static void stopRecording() {
+        sRecording = false;
+    }
+
+    /**
+     * Writes the recorded sections in the Chrome trace-event JSON format, as complete ("X")
+     * events with microsecond timestamps.
+     */
+    public static void writeChromeTrace(Writer writer) throws IOException {
+        List<Section> sections;
+        long origin;
+        synchronized (sSections) {
+            sections = new ArrayList<>(sSections);
+            origin = sRecordingStartNanos;
+        }
+
+        writer.write("{\"traceEvents\":[");
+        for (int i = 0; i < sections.size(); i++) {
+            Section section = sections.get(i);
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write("\n{\"name\":\"");
+            writer.write(section.name.replace("\\", "\\\\").replace("\"", "\\\""));
+            writer.write("\",\"ph\":\"X\",\"pid\":1,\"tid\":");
+            writer.write(Long.toString(section.threadId));
+            writer.write(",\"ts\":");
+            writer.write(Long.toString(Math.max(0, section.startNanos - origin) / 1000));
+            writer.write(",\"dur\":");
+            writer.write(Long.toString(section.durationNanos / 1000));
+            writer.write('}');
+        }
+        writer.write("\n]}\n");
+        writer.flush();
+    }
+}
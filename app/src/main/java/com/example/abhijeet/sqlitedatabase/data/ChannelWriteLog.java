@@ -0,0 +1,437 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of channel edits that have been acknowledged but not yet written to the
+ * channels table. {@link ChannelProvider} appends write-behind edits here and applies them to the
+ * table in batches on a background thread.
+ * <p>
+ * Each entry is stored as its length, a CRC32 of its bytes and the bytes themselves:
+ * <pre>
+ * long   sequence number
+ * byte   operation ({@link #OP_INSERT}, {@link #OP_UPDATE} or {@link #OP_DELETE})
+ * long   _id of the channel
+ * long   channel_id
+ * UTF    name, empty for deletes
+ * </pre>
+ * An append returns once the entry has reached the operating system, so it survives the app
+ * being killed. The file is synced at most every {@link #SYNC_INTERVAL_MILLIS}, so a power loss
+ * can lose the edits of that window. A torn entry at the end of the file fails its CRC and is cut
+ * off when the log is opened again.
+ * <p>
+ * The sequence number of the last applied entry is stored in the database, in the same
+ * transaction as the edits themselves. Entries at or below it are skipped when the log is
+ * replayed, so applying the log again after a crash has no effect. Once the applied entries take
+ * up more of the file than the pending ones, the pending ones are copied to a new file that
+ * replaces the log, so the file stays small even when edits never stop arriving.
+ * <p>
+ * An entry the database rejects is kept in {@link #FAILED_TABLE_NAME} rather than dropped.
+ */
+public class ChannelWriteLog {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = ChannelWriteLog.class.getSimpleName();
+
+    /*** Name of the single-row table holding the last applied sequence number*/
+    static final String TABLE_NAME = "channel_write_log";
+
+    /*** Sequence number of the last entry applied to the channels table*/
+    static final String COLUMN_APPLIED_SEQUENCE = "applied_sequence";
+
+    /*** Name of the table keeping the entries that failed to apply, with the error*/
+    static final String FAILED_TABLE_NAME = "channel_write_log_failed";
+
+    /** Columns of {@link #FAILED_TABLE_NAME}, besides the entry's own fields */
+    static final String COLUMN_SEQUENCE = "sequence";
+    static final String COLUMN_OP = "op";
+    static final String COLUMN_ERROR = "error";
+
+    /** Possible values for the operation of an entry. */
+    static final byte OP_INSERT = 1;
+    static final byte OP_UPDATE = 2;
+    static final byte OP_DELETE = 3;
+
+    /** Longest time an appended entry waits before the file is synced */
+    static final long SYNC_INTERVAL_MILLIS = 200;
+
+    /** Number of channel ids reserved in the database at a time for logged inserts */
+    private static final int RESERVED_ID_BLOCK = 64;
+
+    /** Syncs the files of all logs, off the threads that append to them */
+    private static final ScheduledExecutorService sSyncExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    /*** One logged edit.*/
+    static final class Entry {
+        final long sequence;
+        final byte op;
+        final long id;
+        final long channelId;
+        final String name;
+        /** Bytes the entry takes up in the file, header included */
+        final int size;
+
+        Entry(long sequence, byte op, long id, long channelId, String name, int size) {
+            this.sequence = sequence;
+            this.op = op;
+            this.id = id;
+            this.channelId = channelId;
+            this.name = name;
+            this.size = size;
+        }
+    }
+
+    private final File mPath;
+
+    /** The log file, replaced by a compacted copy from time to time */
+    private RandomAccessFile mFile;
+
+    /** Entries that have not been applied yet, in sequence order */
+    private final List<Entry> mPending = new ArrayList<>();
+
+    /** Bytes of the file taken up by the pending entries and by the applied ones */
+    private long mPendingBytes;
+    private long mAppliedBytes;
+
+    /** Sequence number for the next entry */
+    private long mNextSequence;
+
+    /** Guards the reserved ids, apart from the log itself so appends never wait on the database */
+    private final Object mReservationLock = new Object();
+
+    /** Next reserved channel id and the first one past the reserved block */
+    private long mNextReservedId;
+    private long mReservedLimit;
+
+    /** True while a sync of the file is scheduled but has not run yet */
+    private boolean mSyncPending;
+
+    /**
+     * Opens the log in the given file, reading back the entries after the given sequence number.
+     * A damaged tail is cut off.
+     *
+     * @param appliedSequence sequence number of the last entry already in the database
+     */
+    public ChannelWriteLog(File file, long appliedSequence) throws IOException {
+        mPath = file;
+        mFile = new RandomAccessFile(file, "rw");
+        mNextSequence = appliedSequence + 1;
+
+        long validLength = 0;
+        // Not closed, as that would close the file too. The position is reset below.
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(mFile.getFD())));
+        CRC32 crc = new CRC32();
+        try {
+            while (true) {
+                int length = in.readInt();
+                long checksum = in.readInt() & 0xffffffffL;
+                if (length <= 0 || validLength + 8 + length > mFile.length()) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                crc.reset();
+                crc.update(bytes, 0, length);
+                if (crc.getValue() != checksum) {
+                    break;
+                }
+                Entry entry = readEntry(bytes);
+                if (entry.sequence > appliedSequence) {
+                    mPending.add(entry);
+                    mPendingBytes += entry.size;
+                } else {
+                    mAppliedBytes += entry.size;
+                }
+                mNextSequence = Math.max(mNextSequence, entry.sequence + 1);
+                validLength += 8 + length;
+            }
+        } catch (EOFException e) {
+            // The last entry was cut short, it is dropped below
+        }
+
+        if (validLength != mFile.length()) {
+            Log.w(LOG_TAG, "Dropping " + (mFile.length() - validLength) + " damaged bytes of " + file);
+            mFile.setLength(validLength);
+        }
+        mFile.seek(validLength);
+    }
+
+    private static Entry readEntry(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        return new Entry(in.readLong(), in.readByte(), in.readLong(), in.readLong(), in.readUTF(),
+                8 + bytes.length);
+    }
+
+    /*** Encodes an entry as it is stored in the file: length, CRC32 and payload.*/
+    private static byte[] encodeRecord(long sequence, byte op, long id, long channelId, String name)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(sequence);
+        out.writeByte(op);
+        out.writeLong(id);
+        out.writeLong(channelId);
+        out.writeUTF(name);
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        byte[] record = new byte[8 + payload.length];
+        writeInt(record, 0, payload.length);
+        writeInt(record, 4, (int) crc.getValue());
+        System.arraycopy(payload, 0, record, 8, payload.length);
+        return record;
+    }
+
+    /**
+     * Creates the table holding the applied sequence number. Called by {@link ChannelDbHelper}.
+     */
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_NAME + " ("
+                + COLUMN_APPLIED_SEQUENCE + " INTEGER NOT NULL);");
+        db.execSQL("INSERT INTO " + TABLE_NAME + " (" + COLUMN_APPLIED_SEQUENCE + ") VALUES (0);");
+    }
+
+    /**
+     * Creates the table keeping the entries that failed to apply. Called by
+     * {@link ChannelDbHelper}.
+     */
+    static void createFailedTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + FAILED_TABLE_NAME + " ("
+                + COLUMN_SEQUENCE + " INTEGER PRIMARY KEY, "
+                + COLUMN_OP + " INTEGER NOT NULL, "
+                + ChannelEntry._ID + " INTEGER NOT NULL, "
+                + ChannelEntry.COLUMN_CHANNEL_ID + " INTEGER NOT NULL, "
+                + ChannelEntry.COLUMN_CHANNEL_NAME + " TEXT NOT NULL, "
+                + COLUMN_ERROR + " TEXT);");
+    }
+
+    /**
+     * Keeps an entry that the database rejected, with the error. Must be called in the
+     * transaction that tried to apply it.
+     */
+    static void keepFailed(SQLiteDatabase database, Entry entry, Exception error) {
+        database.execSQL("INSERT OR REPLACE INTO " + FAILED_TABLE_NAME + " (" + COLUMN_SEQUENCE
+                + ", " + COLUMN_OP + ", " + ChannelEntry._ID + ", " + ChannelEntry.COLUMN_CHANNEL_ID
+                + ", " + ChannelEntry.COLUMN_CHANNEL_NAME + ", " + COLUMN_ERROR
+                + ") VALUES (?, ?, ?, ?, ?, ?)", new Object[] { entry.sequence, entry.op, entry.id,
+                entry.channelId, entry.name, String.valueOf(error) });
+    }
+
+    /*** Returns the sequence number of the last entry applied to the given database.*/
+    static long getAppliedSequence(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database,
+                "SELECT " + COLUMN_APPLIED_SEQUENCE + " FROM " + TABLE_NAME, null);
+    }
+
+    /**
+     * Records that every entry up to the given sequence number has been applied. Must be called
+     * in the transaction that applied them.
+     */
+    static void setAppliedSequence(SQLiteDatabase database, long sequence) {
+        database.execSQL("UPDATE " + TABLE_NAME + " SET " + COLUMN_APPLIED_SEQUENCE + " = ?",
+                new Object[] { sequence });
+    }
+
+    /**
+     * Returns a new {@link ChannelEntry#_ID} for a logged insert. Ids are reserved in blocks by
+     * moving the table's AUTOINCREMENT counter past them, so that nothing else takes them before
+     * the insert is applied.
+     */
+    public long reserveId(SQLiteDatabase database) {
+        synchronized (mReservationLock) {
+            return reserveIdLocked(database);
+        }
+    }
+
+    private long reserveIdLocked(SQLiteDatabase database) {
+        if (mNextReservedId == mReservedLimit) {
+            database.beginTransaction();
+            try {
+                long lastId = DatabaseUtils.longForQuery(database, "SELECT MAX("
+                        + "IFNULL((SELECT seq FROM sqlite_sequence WHERE name = ?1), 0), "
+                        + "IFNULL((SELECT MAX(" + ChannelEntry._ID + ") FROM "
+                        + ChannelEntry.TABLE_NAME + "), 0))", new String[] { ChannelEntry.TABLE_NAME });
+                database.execSQL("DELETE FROM sqlite_sequence WHERE name = ?",
+                        new Object[] { ChannelEntry.TABLE_NAME });
+                database.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES (?, ?)",
+                        new Object[] { ChannelEntry.TABLE_NAME, lastId + RESERVED_ID_BLOCK });
+                database.setTransactionSuccessful();
+                mNextReservedId = lastId + 1;
+                mReservedLimit = lastId + 1 + RESERVED_ID_BLOCK;
+            } finally {
+                database.endTransaction();
+            }
+        }
+        return mNextReservedId++;
+    }
+
+    /**
+     * Appends an edit and returns once it has been handed to the operating system. The file is
+     * synced a little later.
+     *
+     * @param op        {@link #OP_INSERT}, {@link #OP_UPDATE} or {@link #OP_DELETE}
+     * @param id        _id of the channel, reserved with {@link #reserveId} for inserts
+     * @param name      new name, ignored for deletes
+     * @param channelId new channel id, ignored for deletes
+     */
+    public void append(byte op, long id, String name, long channelId) throws IOException {
+        synchronized (this) {
+            String entryName = name == null ? "" : name;
+            byte[] record = encodeRecord(mNextSequence, op, id, channelId, entryName);
+            Entry entry = new Entry(mNextSequence, op, id, channelId, entryName, record.length);
+
+            // One write call per entry, so a crash leaves at most the last one torn
+            mFile.write(record);
+
+            mNextSequence++;
+            mPending.add(entry);
+            mPendingBytes += entry.size;
+            if (mSyncPending) {
+                return;
+            }
+            mSyncPending = true;
+        }
+        sSyncExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                sync();
+            }
+        }, SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /*** Forces the entries appended so far to disk.*/
+    public void sync() {
+        RandomAccessFile file;
+        synchronized (this) {
+            mSyncPending = false;
+            file = mFile;
+        }
+        try {
+            file.getFD().sync();
+        } catch (IOException e) {
+            synchronized (this) {
+                if (file != mFile) {
+                    // Replaced by a compacted copy, which was synced when it was written
+                    return;
+                }
+            }
+            Log.e(LOG_TAG, "Failed to sync the write log", e);
+        }
+    }
+
+    /*** Returns true if some entries have not been applied yet.*/
+    public synchronized boolean hasPending() {
+        return !mPending.isEmpty();
+    }
+
+    /**
+     * Returns the operation of the newest pending entry for the channel with the given _id, or
+     * 0 if none of the pending entries is for that channel.
+     */
+    synchronized byte getLastPendingOp(long id) {
+        for (int i = mPending.size() - 1; i >= 0; i--) {
+            if (mPending.get(i).id == id) {
+                return mPending.get(i).op;
+            }
+        }
+        return 0;
+    }
+
+    /*** Returns up to the given number of the oldest entries that have not been applied yet.*/
+    synchronized List<Entry> getPending(int maxEntries) {
+        return new ArrayList<>(mPending.subList(0, Math.min(maxEntries, mPending.size())));
+    }
+
+    /**
+     * Drops the entries up to the given sequence number, which the database now holds. Once
+     * nothing is pending the file is emptied, and once the applied entries outweigh the pending
+     * ones the file is compacted.
+     */
+    synchronized void markApplied(long sequence) throws IOException {
+        int applied = 0;
+        while (applied < mPending.size() && mPending.get(applied).sequence <= sequence) {
+            mPendingBytes -= mPending.get(applied).size;
+            mAppliedBytes += mPending.get(applied).size;
+            applied++;
+        }
+        mPending.subList(0, applied).clear();
+        if (mPending.isEmpty()) {
+            mFile.setLength(0);
+            mFile.seek(0);
+            mPendingBytes = 0;
+            mAppliedBytes = 0;
+        } else if (mAppliedBytes >= mPendingBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * Writes the pending entries to a new file and renames it over the log. The old file stays
+     * in place, complete, until the new one has been synced.
+     */
+    private void compact() throws IOException {
+        File compacted = new File(mPath.getPath() + ".compact");
+        RandomAccessFile file = new RandomAccessFile(compacted, "rw");
+        boolean renamed = false;
+        try {
+            file.setLength(0);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) mPendingBytes);
+            for (Entry entry : mPending) {
+                bytes.write(encodeRecord(entry.sequence, entry.op, entry.id, entry.channelId,
+                        entry.name));
+            }
+            file.write(bytes.toByteArray());
+            file.getFD().sync();
+            if (!compacted.renameTo(mPath)) {
+                throw new IOException("Failed to rename " + compacted + " to " + mPath);
+            }
+            renamed = true;
+        } finally {
+            if (!renamed) {
+                file.close();
+                compacted.delete();
+            }
+        }
+
+        mFile.close();
+        mFile = file;
+        mAppliedBytes = 0;
+    }
+
+    /*** Syncs and closes the file.*/
+    public synchronized void close() throws IOException {
+        mFile.getFD().sync();
+        mFile.close();
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.ChannelEntry;
+
+/**
+ * Writes channels into the channels table through compiled statements. Values are validated and
+ * bound as primitives, so writing a row allocates nothing beyond the name itself. This is the
+ * path behind {@link ChannelProvider#insert} and {@link ChannelProvider#bulkInsert}.
+ * <p>
+ * A writer is tied to one open database. It does not notify content observers; callers that
+ * bypass the provider must do that themselves.
+ */
+public class ChannelWriter {
+
+    private final SQLiteDatabase mDatabase;
+
+    /** INSERT statement, compiled on first use */
+    private SQLiteStatement mInsert;
+
+    /** INSERT statement with a given row id, compiled on first use */
+    private SQLiteStatement mInsertWithId;
+
+    /** UPDATE statement for a single row, compiled on first use */
+    private SQLiteStatement mUpdate;
+
+    /** DELETE statement for a single row, compiled on first use */
+    private SQLiteStatement mDelete;
+
+    /**
+     * Constructs a new instance of {@link ChannelWriter}.
+     *
+     * @param database writable database holding the channels table
+     */
+    public ChannelWriter(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /*** Returns the database this writer writes to.*/
+    public SQLiteDatabase getDatabase() {
+        return mDatabase;
+    }
+
+    /**
+     * Inserts a channel and returns its new {@link ChannelEntry#_ID}.
+     *
+     * @param name      of the channel, not null
+     * @param channelId ThingSpeak channel id, 0 or more
+     * @return the new row id
+     * @throws android.database.SQLException if SQLite rejects the row
+     */
+    public synchronized long insert(String name, long channelId) {
+        Channel.checkName(name);
+        Channel.checkChannelId(channelId);
+
+        if (mInsert == null) {
+            mInsert = mDatabase.compileStatement("INSERT INTO " + ChannelEntry.TABLE_NAME + " ("
+                    + ChannelEntry.COLUMN_CHANNEL_NAME + ", " + ChannelEntry.COLUMN_CHANNEL_ID
+                    + ") VALUES (?, ?)");
+        }
+        mInsert.bindString(1, name);
+        mInsert.bindLong(2, channelId);
+        return mInsert.executeInsert();
+    }
+
+    /**
+     * Inserts a channel under a row id reserved for it beforehand, as the write log does.
+     *
+     * @throws android.database.SQLException if the row id is taken or SQLite rejects the row
+     */
+    public synchronized void insert(long id, String name, long channelId) {
+        Channel.checkName(name);
+        Channel.checkChannelId(channelId);
+
+        if (mInsertWithId == null) {
+            mInsertWithId = mDatabase.compileStatement("INSERT INTO " + ChannelEntry.TABLE_NAME
+                    + " (" + ChannelEntry._ID + ", " + ChannelEntry.COLUMN_CHANNEL_NAME + ", "
+                    + ChannelEntry.COLUMN_CHANNEL_ID + ") VALUES (?, ?, ?)");
+        }
+        mInsertWithId.bindLong(1, id);
+        mInsertWithId.bindString(2, name);
+        mInsertWithId.bindLong(3, channelId);
+        mInsertWithId.executeInsert();
+    }
+
+    /*** Inserts the given channel and returns its new {@link ChannelEntry#_ID}.*/
+    public long insert(Channel channel) {
+        return insert(channel.getName(), channel.getChannelId());
+    }
+
+    /**
+     * Replaces the name and channel id of the channel with the given row id.
+     *
+     * @return the number of rows updated, 0 or 1
+     */
+    public synchronized int update(long id, String name, long channelId) {
+        Channel.checkName(name);
+        Channel.checkChannelId(channelId);
+
+        if (mUpdate == null) {
+            mUpdate = mDatabase.compileStatement("UPDATE " + ChannelEntry.TABLE_NAME + " SET "
+                    + ChannelEntry.COLUMN_CHANNEL_NAME + " = ?, " + ChannelEntry.COLUMN_CHANNEL_ID
+                    + " = ? WHERE " + ChannelEntry._ID + " = ?");
+        }
+        mUpdate.bindString(1, name);
+        mUpdate.bindLong(2, channelId);
+        mUpdate.bindLong(3, id);
+        return mUpdate.executeUpdateDelete();
+    }
+
+    /**
+     * Deletes the channel with the given row id.
+     *
+     * @return the number of rows deleted, 0 or 1
+     */
+    public synchronized int delete(long id) {
+        if (mDelete == null) {
+            mDelete = mDatabase.compileStatement("DELETE FROM " + ChannelEntry.TABLE_NAME
+                    + " WHERE " + ChannelEntry._ID + " = ?");
+        }
+        mDelete.bindLong(1, id);
+        return mDelete.executeUpdateDelete();
+    }
+
+    /*** Updates the given channel, which must have a row id, and returns the rows updated.*/
+    public int update(Channel channel) {
+        if (channel.getId() == Channel.NO_ID) {
+            throw new IllegalArgumentException("Channel has not been inserted yet");
+        }
+        return update(channel.getId(), channel.getName(), channel.getChannelId());
+    }
+
+    /*** Releases the compiled statements.*/
+    public synchronized void close() {
+        if (mInsert != null) {
+            mInsert.close();
+            mInsert = null;
+        }
+        if (mInsertWithId != null) {
+            mInsertWithId.close();
+            mInsertWithId = null;
+        }
+        if (mUpdate != null) {
+            mUpdate.close();
+            mUpdate = null;
+        }
+        if (mDelete != null) {
+            mDelete.close();
+            mDelete = null;
+        }
+    }
+}
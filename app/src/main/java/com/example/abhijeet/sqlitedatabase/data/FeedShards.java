@@ -0,0 +1,575 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
+import android.text.TextUtils;
+
+import com.example.abhijeet.sqlitedatabase.data.ChannelContract.FeedEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Feed entries spread over several database files, each channel's entries in the shard picked
+ * by a hash of its channel id. Every shard has its own connection pool, its own write lock in
+ * SQLite and its own compiled insert statement, so imports for channels in different shards
+ * write at the same time instead of queueing on one database.
+ * <p>
+ * Queries for one channel read only its shard. Queries over all channels, such as
+ * {@link #queryLatest(CancellationSignal)}, run on every shard in parallel on a fork-join pool
+ * and the results are merged.
+ * <p>
+ * The shard of a channel depends on the number of shards, so each shard count keeps its own set
+ * of files. Changing the count starts from empty shards; entries are not moved over.
+ */
+public class FeedShards {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = FeedShards.class.getSimpleName();
+
+    /** Number of shards used when none is configured */
+    public static final int DEFAULT_SHARD_COUNT = 4;
+
+    /** Most shards allowed, also the most threads the fan-out pool starts */
+    public static final int MAX_SHARD_COUNT = 16;
+
+    /**
+     * Database version of each shard. If you change the shard schema, you must increment it.
+     */
+    private static final int DATABASE_VERSION = 1;
+
+    /**
+     * Runs the work of every shard at once. Shard queries mostly wait on SQLite and the disk, so
+     * the pool is sized for the shards rather than for the processors. Threads are only started
+     * as they are needed.
+     */
+    private static final ForkJoinPool sPool = new ForkJoinPool(MAX_SHARD_COUNT);
+
+    /** Names of the columns of the feed cursors, when no projection is given */
+    public static final String[] FEED_COLUMNS = feedColumns();
+
+    /** Projection of the feeds URI when none is given, with the entry id as _id */
+    static final String[] FEED_PROJECTION = feedProjection();
+
+    /**
+     * Query for the latest entry of every channel in a shard, in channel id order. The recursive
+     * part hops from one channel id to the next through the primary key, so the cost grows with
+     * the number of channels rather than with the number of entries.
+     */
+    static final String SQL_QUERY_LATEST = "WITH RECURSIVE feed_channels(id) AS ("
+            + "SELECT MIN(" + FeedEntry.COLUMN_CHANNEL_ID + ") FROM " + FeedEntry.TABLE_NAME
+            + " UNION ALL SELECT (SELECT MIN(" + FeedEntry.COLUMN_CHANNEL_ID + ") FROM "
+            + FeedEntry.TABLE_NAME + " WHERE " + FeedEntry.COLUMN_CHANNEL_ID + " > id)"
+            + " FROM feed_channels WHERE id IS NOT NULL)"
+            + " SELECT " + latestColumns()
+            + " FROM feed_channels JOIN " + FeedEntry.TABLE_NAME + " e"
+            + " ON e." + FeedEntry.COLUMN_CHANNEL_ID + " = feed_channels.id"
+            + " AND e." + FeedEntry.COLUMN_ENTRY_ID + " = (SELECT MAX(" + FeedEntry.COLUMN_ENTRY_ID
+            + ") FROM " + FeedEntry.TABLE_NAME + " WHERE " + FeedEntry.COLUMN_CHANNEL_ID
+            + " = feed_channels.id)"
+            + " ORDER BY e." + FeedEntry.COLUMN_CHANNEL_ID;
+
+    /** Index of the channel id column in the rows of {@link #SQL_QUERY_LATEST} */
+    private static final int LATEST_CHANNEL_ID_INDEX = 1;
+
+    /*** One shard: a database file with the feed entries of some of the channels.*/
+    private static final class Shard extends SQLiteOpenHelper {
+
+        private final Context mContext;
+
+        private final ChannelDbHelper.StorageMode mStorageMode;
+
+        /**
+         * Held by writes to the shard. Separate from the helper's own lock, which
+         * getReadableDatabase() takes, so that readers are not held up by a long import.
+         */
+        final Object mWriteLock = new Object();
+
+        /** INSERT OR REPLACE statement, compiled on first use and guarded by the write lock */
+        private SQLiteStatement mInsert;
+
+        Shard(Context context, String name, ChannelDbHelper.StorageMode storageMode) {
+            super(context, name, null, DATABASE_VERSION);
+            mContext = context;
+            mStorageMode = storageMode;
+            if (storageMode.isWriteAheadLogging()) {
+                setWriteAheadLoggingEnabled(true);
+            }
+        }
+
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            if (mStorageMode == ChannelDbHelper.StorageMode.TEMP_FILE) {
+                // Same as a temporary channels database, nothing here needs to survive a crash
+                DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode=OFF", null);
+                db.execSQL("PRAGMA synchronous=OFF");
+            }
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            StringBuilder sql = new StringBuilder("CREATE TABLE " + FeedEntry.TABLE_NAME + " ("
+                    + FeedEntry.COLUMN_CHANNEL_ID + " INTEGER NOT NULL, "
+                    + FeedEntry.COLUMN_ENTRY_ID + " INTEGER NOT NULL, "
+                    + FeedEntry.COLUMN_CREATED_AT + " INTEGER NOT NULL");
+            for (String column : FeedEntry.FIELD_COLUMNS) {
+                sql.append(", ").append(column).append(" TEXT");
+            }
+            // Entries are stored in key order, a channel's entries next to each other
+            sql.append(", PRIMARY KEY (").append(FeedEntry.COLUMN_CHANNEL_ID).append(", ")
+                    .append(FeedEntry.COLUMN_ENTRY_ID).append(")) WITHOUT ROWID;");
+            db.execSQL(sql.toString());
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+
+        /**
+         * Inserts or replaces one entry. Must be called holding the write lock, inside a
+         * transaction for batches.
+         */
+        void insertLocked(ContentValues values) {
+            if (mInsert == null) {
+                StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO " + FeedEntry.TABLE_NAME
+                        + " (" + FeedEntry.COLUMN_CHANNEL_ID + ", " + FeedEntry.COLUMN_ENTRY_ID + ", "
+                        + FeedEntry.COLUMN_CREATED_AT);
+                for (String column : FeedEntry.FIELD_COLUMNS) {
+                    sql.append(", ").append(column);
+                }
+                sql.append(") VALUES (?, ?, ?");
+                for (int i = 0; i < FeedEntry.FIELD_COLUMNS.length; i++) {
+                    sql.append(", ?");
+                }
+                mInsert = getWritableDatabase().compileStatement(sql.append(")").toString());
+            }
+            mInsert.bindLong(1, values.getAsLong(FeedEntry.COLUMN_CHANNEL_ID));
+            mInsert.bindLong(2, values.getAsLong(FeedEntry.COLUMN_ENTRY_ID));
+            mInsert.bindLong(3, values.getAsLong(FeedEntry.COLUMN_CREATED_AT));
+            for (int i = 0; i < FeedEntry.FIELD_COLUMNS.length; i++) {
+                String value = values.getAsString(FeedEntry.FIELD_COLUMNS[i]);
+                if (value == null) {
+                    mInsert.bindNull(4 + i);
+                } else {
+                    mInsert.bindString(4 + i, value);
+                }
+            }
+            mInsert.executeInsert();
+        }
+
+        @Override
+        public void close() {
+            synchronized (mWriteLock) {
+                if (mInsert != null) {
+                    mInsert.close();
+                    mInsert = null;
+                }
+                super.close();
+            }
+            if (mStorageMode.isTemporary()) {
+                mContext.deleteDatabase(getDatabaseName());
+            }
+        }
+    }
+
+    /*** Work done on each shard by {@link #fanOut(ShardOperation)}.*/
+    private interface ShardOperation {
+
+        /*** Runs on a pool thread and returns the shard's result.*/
+        Object run(int index, Shard shard);
+    }
+
+    /**
+     * Fork-join task that runs an operation on a range of shards, splitting the range in half
+     * until each task has a single shard. A task returns only once every shard in its range is
+     * done, even if one of them failed, and then throws the first failure.
+     */
+    private final class FanOutTask extends RecursiveAction {
+
+        private final ShardOperation mOperation;
+
+        private final Object[] mResults;
+
+        private final int mFrom;
+
+        private final int mTo;
+
+        FanOutTask(ShardOperation operation, Object[] results, int from, int to) {
+            mOperation = operation;
+            mResults = results;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom == 1) {
+                mResults[mFrom] = mOperation.run(mFrom, mShards[mFrom]);
+                return;
+            }
+            int middle = (mFrom + mTo) >>> 1;
+            FanOutTask right = new FanOutTask(mOperation, mResults, middle, mTo);
+            right.fork();
+
+            // Not invokeAll(), which throws as soon as one half fails while the other may still
+            // be running, and filling in results or writing to its shards
+            RuntimeException failure = null;
+            try {
+                new FanOutTask(mOperation, mResults, mFrom, middle).compute();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            try {
+                right.join();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private final Shard[] mShards;
+
+    /**
+     * Opens the shards. The databases themselves are opened on first use.
+     *
+     * @param context     of the app
+     * @param storageMode where to keep the shards, like the channels database
+     * @param shardCount  number of shards, from 1 to {@link #MAX_SHARD_COUNT}
+     */
+    public FeedShards(Context context, ChannelDbHelper.StorageMode storageMode, int shardCount) {
+        if (shardCount < 1 || shardCount > MAX_SHARD_COUNT) {
+            throw new IllegalArgumentException("Invalid shard count " + shardCount);
+        }
+        String tempId = UUID.randomUUID().toString();
+        mShards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            String name;
+            switch (storageMode) {
+                case MEMORY:
+                    name = null;
+                    break;
+                case TEMP_FILE:
+                case TEMP_WAL_FILE:
+                    name = "feeds-" + tempId + "-" + i + ".db";
+                    break;
+                default:
+                    name = "feeds-" + i + "-of-" + shardCount + ".db";
+                    break;
+            }
+            mShards[i] = new Shard(context, name, storageMode);
+        }
+    }
+
+    /*** Returns the number of shards.*/
+    public int getShardCount() {
+        return mShards.length;
+    }
+
+    /*** Returns the index of the shard holding the entries of the given channel.*/
+    public int shardFor(long channelId) {
+        // Mixed first, so that runs of consecutive channel ids spread over every shard
+        return (int) ((ChannelIdBloomFilter.mix(channelId) & Long.MAX_VALUE) % mShards.length);
+    }
+
+    /*** Checks that the values hold a complete feed entry.*/
+    private static void checkEntry(ContentValues values) {
+        Long channelId = values.getAsLong(FeedEntry.COLUMN_CHANNEL_ID);
+        if (channelId == null) {
+            throw new IllegalArgumentException("Feed entry requires a channel id");
+        }
+        Channel.checkChannelId(channelId);
+        Long entryId = values.getAsLong(FeedEntry.COLUMN_ENTRY_ID);
+        if (entryId == null || entryId < 0) {
+            throw new IllegalArgumentException("Feed entry requires a valid entry id");
+        }
+        if (values.getAsLong(FeedEntry.COLUMN_CREATED_AT) == null) {
+            throw new IllegalArgumentException("Feed entry requires a creation time");
+        }
+    }
+
+    /**
+     * Inserts one feed entry into its channel's shard, replacing an entry with the same channel
+     * and entry ids.
+     *
+     * @throws IllegalArgumentException if the channel id, entry id or creation time is missing
+     */
+    public void insert(ContentValues values) {
+        checkEntry(values);
+        Shard shard = mShards[shardFor(values.getAsLong(FeedEntry.COLUMN_CHANNEL_ID))];
+        synchronized (shard.mWriteLock) {
+            shard.insertLocked(values);
+        }
+    }
+
+    /**
+     * Inserts many feed entries and returns the number inserted. The entries of each shard are
+     * written in one transaction, and the shards are written in parallel.
+     * <p>
+     * Every entry is checked before anything is written. Each shard commits on its own, so if
+     * one shard fails the others may already hold their entries; the batch can simply be sent
+     * again, as entries replace themselves.
+     *
+     * @throws IllegalArgumentException if an entry is incomplete
+     */
+    public int bulkInsert(ContentValues[] values) {
+        // Split the batch by shard up front, the shards then never touch each other's entries
+        final List<List<ContentValues>> batches = new ArrayList<>(mShards.length);
+        for (int i = 0; i < mShards.length; i++) {
+            batches.add(new ArrayList<ContentValues>());
+        }
+        for (ContentValues entry : values) {
+            checkEntry(entry);
+            batches.get(shardFor(entry.getAsLong(FeedEntry.COLUMN_CHANNEL_ID))).add(entry);
+        }
+
+        Object[] counts = fanOut(new ShardOperation() {
+            @Override
+            public Object run(int index, Shard shard) {
+                List<ContentValues> batch = batches.get(index);
+                if (batch.isEmpty()) {
+                    return 0;
+                }
+                ChannelTrace.beginSection("FeedShards.bulkInsert");
+                try {
+                    synchronized (shard.mWriteLock) {
+                        SQLiteDatabase database = shard.getWritableDatabase();
+                        database.beginTransaction();
+                        try {
+                            for (ContentValues entry : batch) {
+                                shard.insertLocked(entry);
+                            }
+                            database.setTransactionSuccessful();
+                        } finally {
+                            database.endTransaction();
+                        }
+                    }
+                    return batch.size();
+                } finally {
+                    ChannelTrace.endSection();
+                }
+            }
+        });
+
+        int inserted = 0;
+        for (Object count : counts) {
+            inserted += (Integer) count;
+        }
+        return inserted;
+    }
+
+    /**
+     * Queries the feed entries of one channel, reading only its shard. The selection is combined
+     * with the channel id.
+     */
+    public Cursor queryChannel(long channelId, String[] projection, String selection,
+                               String[] selectionArgs, String sortOrder,
+                               CancellationSignal cancellationSignal) {
+        String channelSelection = FeedEntry.COLUMN_CHANNEL_ID + " = " + channelId;
+        if (!TextUtils.isEmpty(selection)) {
+            channelSelection += " AND (" + selection + ")";
+        }
+        return mShards[shardFor(channelId)].getReadableDatabase().query(false, FeedEntry.TABLE_NAME,
+                projection == null ? FEED_PROJECTION : projection, channelSelection, selectionArgs,
+                null, null, sortOrder == null ? FeedEntry.COLUMN_ENTRY_ID : sortOrder, null,
+                cancellationSignal);
+    }
+
+    /**
+     * Queries the feed entries of all channels, running the query on every shard in parallel.
+     * The sort order applies within each shard only; the shards follow each other in the result,
+     * so the entries as a whole are not in that order. Callers that need one order across all
+     * channels have to sort the result themselves.
+     */
+    public Cursor queryAll(final String[] projection, final String selection,
+                           final String[] selectionArgs, final String sortOrder,
+                           CancellationSignal cancellationSignal) {
+        final CancellationSignal[] shardSignals = shardSignals(cancellationSignal);
+        Object[] results = fanOut(new ShardOperation() {
+            @Override
+            public Object run(int index, Shard shard) {
+                return fill(shard.getReadableDatabase().query(false, FeedEntry.TABLE_NAME,
+                        projection == null ? FEED_PROJECTION : projection, selection, selectionArgs,
+                        null, null, sortOrder, null, shardSignals[index]));
+            }
+        });
+        Cursor[] cursors = new Cursor[results.length];
+        for (int i = 0; i < results.length; i++) {
+            cursors[i] = (Cursor) results[i];
+        }
+        return new MergeCursor(cursors);
+    }
+
+    /**
+     * Returns the latest entry of every channel, one row per channel in channel id order, with
+     * the {@link #FEED_COLUMNS} and the channel id as _id. Every shard is queried in parallel, and as each
+     * shard's rows are already in channel id order, the results are merged rather than sorted.
+     */
+    public Cursor queryLatest(CancellationSignal cancellationSignal) {
+        final CancellationSignal[] shardSignals = shardSignals(cancellationSignal);
+        Object[] results = fanOut(new ShardOperation() {
+            @Override
+            public Object run(int index, Shard shard) {
+                return fill(shard.getReadableDatabase().rawQuery(SQL_QUERY_LATEST, null,
+                        shardSignals[index]));
+            }
+        });
+
+        Cursor[] cursors = new Cursor[results.length];
+        int rows = 0;
+        for (int i = 0; i < results.length; i++) {
+            cursors[i] = (Cursor) results[i];
+            rows += cursors[i].getCount();
+        }
+        try {
+            return mergeByChannelId(cursors, rows);
+        } finally {
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Merges cursors that are each sorted by channel id into a single sorted cursor. There are
+     * only a handful of shards, so the next row is found by comparing the head of every cursor.
+     */
+    private static Cursor mergeByChannelId(Cursor[] cursors, int rows) {
+        MatrixCursor merged = new MatrixCursor(FEED_COLUMNS, rows);
+        for (Cursor cursor : cursors) {
+            cursor.moveToFirst();
+        }
+        Object[] row = new Object[FEED_COLUMNS.length];
+        while (true) {
+            Cursor next = null;
+            for (Cursor cursor : cursors) {
+                if (!cursor.isAfterLast() && (next == null || cursor.getLong(LATEST_CHANNEL_ID_INDEX)
+                        < next.getLong(LATEST_CHANNEL_ID_INDEX))) {
+                    next = cursor;
+                }
+            }
+            if (next == null) {
+                return merged;
+            }
+            for (int column = 0; column < row.length; column++) {
+                switch (next.getType(column)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        row[column] = null;
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[column] = next.getLong(column);
+                        break;
+                    default:
+                        row[column] = next.getString(column);
+                        break;
+                }
+            }
+            merged.addRow(row);
+            next.moveToNext();
+        }
+    }
+
+    /**
+     * Runs the operation on every shard on the fork-join pool and returns the results, by shard
+     * index. If any shard fails, the failure is thrown once every shard has finished, after the
+     * cursors the others returned have been closed.
+     */
+    private Object[] fanOut(ShardOperation operation) {
+        Object[] results = new Object[mShards.length];
+        try {
+            sPool.invoke(new FanOutTask(operation, results, 0, mShards.length));
+        } catch (RuntimeException e) {
+            for (Object result : results) {
+                if (result instanceof Cursor) {
+                    ((Cursor) result).close();
+                }
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * Returns one cancellation signal per shard, all cancelled when the given one is, or an array
+     * of nulls if there is no signal. A signal has room for a single cancel listener, which a
+     * query sets while it runs, so the shard queries running at once cannot share one.
+     * <p>
+     * The shard signals stay attached, so that windows of the shard cursors filled later can be
+     * cancelled too.
+     */
+    private CancellationSignal[] shardSignals(CancellationSignal cancellationSignal) {
+        final CancellationSignal[] shardSignals = new CancellationSignal[mShards.length];
+        if (cancellationSignal == null) {
+            return shardSignals;
+        }
+        for (int i = 0; i < shardSignals.length; i++) {
+            shardSignals[i] = new CancellationSignal();
+        }
+        // Called straight away if the query was cancelled already
+        cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                for (CancellationSignal shardSignal : shardSignals) {
+                    shardSignal.cancel();
+                }
+            }
+        });
+        return shardSignals;
+    }
+
+    /**
+     * Makes the cursor run its query and fill its first window now, on the calling pool thread,
+     * rather than later on the caller's thread one shard after another.
+     */
+    private static Cursor fill(Cursor cursor) {
+        cursor.getCount();
+        return cursor;
+    }
+
+    /*** Closes every shard. Temporary shards are deleted as well.*/
+    public void close() {
+        for (Shard shard : mShards) {
+            shard.close();
+        }
+    }
+
+    private static String[] feedColumns() {
+        String[] columns = new String[4 + FeedEntry.FIELD_COLUMNS.length];
+        columns[0] = FeedEntry._ID;
+        columns[1] = FeedEntry.COLUMN_CHANNEL_ID;
+        columns[2] = FeedEntry.COLUMN_ENTRY_ID;
+        columns[3] = FeedEntry.COLUMN_CREATED_AT;
+        System.arraycopy(FeedEntry.FIELD_COLUMNS, 0, columns, 4, FeedEntry.FIELD_COLUMNS.length);
+        return columns;
+    }
+
+    private static String[] feedProjection() {
+        String[] projection = feedColumns();
+        projection[0] = FeedEntry.COLUMN_ENTRY_ID + " AS " + FeedEntry._ID;
+        return projection;
+    }
+
+    private static String latestColumns() {
+        StringBuilder columns = new StringBuilder("e." + FeedEntry.COLUMN_CHANNEL_ID + " AS "
+                + FeedEntry._ID);
+        for (int i = 1; i < FEED_COLUMNS.length; i++) {
+            columns.append(", e.").append(FEED_COLUMNS[i]).append(" AS ").append(FEED_COLUMNS[i]);
+        }
+        return columns.toString();
+    }
+}
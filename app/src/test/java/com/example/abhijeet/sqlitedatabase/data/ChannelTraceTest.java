@@ -0,0 +1,82 @@
+package com.example.abhijeet.sqlitedatabase.data;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for {@link ChannelTrace}, where android.os.Trace is not available and sections
+ * are only kept while recording.
+ */
+public class ChannelTraceTest {
+
+    @After
+    public void tearDown() {
+        ChannelTrace.stopRecording();
+    }
+
+    private static String writeChromeTrace() throws IOException {
+        StringWriter writer = new StringWriter();
+        ChannelTrace.writeChromeTrace(writer);
+        return writer.toString();
+    }
+
+    @Test
+    public void writesRecordedSectionsInOrderTheyEnded() throws IOException {
+        ChannelTrace.startRecording();
+        ChannelTrace.beginSection("outer");
+        try {
+            ChannelTrace.beginSection("inner");
+            ChannelTrace.endSection();
+        } finally {
+            ChannelTrace.endSection();
+        }
+        ChannelTrace.stopRecording();
+
+        String json = writeChromeTrace();
+        assertTrue(json, json.startsWith("{\"traceEvents\":["));
+        assertTrue(json, json.trim().endsWith("]}"));
+        int inner = json.indexOf("\"name\":\"inner\",\"ph\":\"X\"");
+        int outer = json.indexOf("\"name\":\"outer\",\"ph\":\"X\"");
+        assertTrue(json, inner >= 0);
+        assertTrue(json, outer > inner);
+        assertTrue(json, json.contains("\"tid\":" + Thread.currentThread().getId()));
+    }
+
+    @Test
+    public void escapesSectionNames() throws IOException {
+        ChannelTrace.startRecording();
+        ChannelTrace.beginSection("say \"hi\" \\ bye");
+        ChannelTrace.endSection();
+
+        assertTrue(writeChromeTrace().contains("\"name\":\"say \\\"hi\\\" \\\\ bye\""));
+    }
+
+    @Test
+    public void startRecordingDiscardsEarlierSections() throws IOException {
+        ChannelTrace.startRecording();
+        ChannelTrace.beginSection("before");
+        ChannelTrace.endSection();
+
+        ChannelTrace.startRecording();
+        String json = writeChromeTrace();
+        assertFalse(json, json.contains("before"));
+        assertEquals("{\"traceEvents\":[\n]}\n", json);
+    }
+
+    @Test
+    public void ignoresSectionsWhileNotRecording() throws IOException {
+        ChannelTrace.startRecording();
+        ChannelTrace.stopRecording();
+        ChannelTrace.beginSection("ignored");
+        ChannelTrace.endSection();
+
+        assertFalse(writeChromeTrace().contains("ignored"));
+    }
+}